@@ -10,5 +10,167 @@ public class Defaults {
 
   public static final String VARIABLE_NEO4J_LOGGING_CONNECTION_DISABLED = "-";
 
+  /**
+   * Log 1 in N executions of a sub-transformation in full detail, the others get a summary.
+   * 1 logs everything (the default), 0 only logs failed or long running executions in full.
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_SAMPLE_RATE = "NEO4J_LOGGING_SAMPLE_RATE";
+
+  /**
+   * When sampling, sub-transformations running at least this number of milliseconds are always logged in full detail
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_SAMPLE_MIN_DURATION_MS = "NEO4J_LOGGING_SAMPLE_MIN_DURATION_MS";
+
+  /**
+   * Set to Y to count sub-transformation executions which aren't logged in full detail in an (:ExecutionAggregate) instead of a summary
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_AGGREGATE = "NEO4J_LOGGING_AGGREGATE";
+
+  /**
+   * How long a logging connection loaded from the metastore is reused, 0 loads it every time
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_CONNECTION_CACHE_MS = "NEO4J_LOGGING_CONNECTION_CACHE_MS";
+  public static final int DEFAULT_CONNECTION_CACHE_MS = 60000;
+
+  /**
+   * The maximum number of logging events waiting to be written to Neo4j (system property or kettle.properties)
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_QUEUE_SIZE = "NEO4J_LOGGING_QUEUE_SIZE";
+  public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+  /**
+   * The number of threads writing logging events to Neo4j in parallel
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_WRITER_THREADS = "NEO4J_LOGGING_WRITER_THREADS";
+  public static final int DEFAULT_WRITER_THREADS = 4;
+
+  /**
+   * How long a Kettle thread will wait for room in a full logging queue before the event is dropped
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_QUEUE_TIMEOUT_MS = "NEO4J_LOGGING_QUEUE_TIMEOUT_MS";
+  public static final int DEFAULT_QUEUE_TIMEOUT_MS = 1000;
+
+  /**
+   * How long the JVM shutdown hook waits for the pending logging events to be written
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_FLUSH_TIMEOUT_MS = "NEO4J_LOGGING_FLUSH_TIMEOUT_MS";
+  public static final int DEFAULT_FLUSH_TIMEOUT_MS = 30000;
+
+  /**
+   * The maximum number of rows passed in a single UNWIND list parameter
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_BATCH_SIZE = "NEO4J_LOGGING_BATCH_SIZE";
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  /**
+   * The number of sessions used to write the shards of a large execution in parallel, 1 writes everything in order on a single session
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_WRITER_PARALLELISM = "NEO4J_LOGGING_WRITER_PARALLELISM";
+  public static final int DEFAULT_WRITER_PARALLELISM = 1;
+
+  /**
+   * The maximum number of log channel hierarchy entries committed in a single transaction
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_COMMIT_SIZE = "NEO4J_LOGGING_COMMIT_SIZE";
+  public static final int DEFAULT_COMMIT_SIZE = 5000;
+
+  /**
+   * The number of kilobytes kept from the start of a long logging text, 0 keeps everything
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_TEXT_HEAD_KB = "NEO4J_LOGGING_TEXT_HEAD_KB";
+  public static final int DEFAULT_TEXT_HEAD_KB = 0;
+
+  /**
+   * The number of kilobytes kept from the end of a long logging text, 0 keeps everything
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_TEXT_TAIL_KB = "NEO4J_LOGGING_TEXT_TAIL_KB";
+  public static final int DEFAULT_TEXT_TAIL_KB = 0;
+
+  /**
+   * Set to Y to store the omitted middle part of a long logging text deflated instead of dropping it
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_TEXT_COMPRESS = "NEO4J_LOGGING_TEXT_COMPRESS";
+
+  /**
+   * The number of kilobytes of logging text stored in a single (:LogText) node
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_TEXT_CHUNK_KB = "NEO4J_LOGGING_TEXT_CHUNK_KB";
+  public static final int DEFAULT_TEXT_CHUNK_KB = 64;
+
+  /**
+   * Set to Y to write logging events with the asynchronous driver API instead of holding a writer thread per transaction
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_ASYNC = "NEO4J_LOGGING_ASYNC";
+
+  /**
+   * The maximum number of sessions writing logging events at the same time in asynchronous mode, shards included
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_ASYNC_MAX_IN_FLIGHT = "NEO4J_LOGGING_ASYNC_MAX_IN_FLIGHT";
+  public static final int DEFAULT_ASYNC_MAX_IN_FLIGHT = 100;
+
+  /**
+   * The maximum number of milliseconds a writer thread waits to gather events which are committed in a single transaction, 0 disables group commit
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_GROUP_COMMIT_MS = "NEO4J_LOGGING_GROUP_COMMIT_MS";
+  public static final int DEFAULT_GROUP_COMMIT_MS = 0;
+
+  /**
+   * The maximum number of logging events committed in a single transaction
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_GROUP_COMMIT_MAX_EVENTS = "NEO4J_LOGGING_GROUP_COMMIT_MAX_EVENTS";
+  public static final int DEFAULT_GROUP_COMMIT_MAX_EVENTS = 100;
+
+  /**
+   * The commit latency in milliseconds the group size is adapted to
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_GROUP_COMMIT_TARGET_MS = "NEO4J_LOGGING_GROUP_COMMIT_TARGET_MS";
+  public static final int DEFAULT_GROUP_COMMIT_TARGET_MS = 250;
+
+  /**
+   * The folder where logging events are spooled while the logging database is unavailable, defaults to ~/.kettle/neo4j-logging-spool
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_SPOOL_FOLDER = "NEO4J_LOGGING_SPOOL_FOLDER";
+
+  /**
+   * The maximum size of the spool file of a logging connection in megabytes, 0 disables spooling
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_SPOOL_MAX_MB = "NEO4J_LOGGING_SPOOL_MAX_MB";
+  public static final int DEFAULT_SPOOL_MAX_MB = 100;
+
+  /**
+   * How often spooled logging events are retried
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_SPOOL_RETRY_MS = "NEO4J_LOGGING_SPOOL_RETRY_MS";
+  public static final int DEFAULT_SPOOL_RETRY_MS = 10000;
+
+  /**
+   * The number of consecutive failed or slow writes after which a logging connection is no longer used until it recovers, 0 disables this
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_BREAKER_FAILURES = "NEO4J_LOGGING_BREAKER_FAILURES";
+  public static final int DEFAULT_BREAKER_FAILURES = 3;
+
+  /**
+   * Writes taking longer than this number of milliseconds count as failures for the circuit breaker, 0 disables this
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_BREAKER_SLOW_MS = "NEO4J_LOGGING_BREAKER_SLOW_MS";
+  public static final int DEFAULT_BREAKER_SLOW_MS = 10000;
+
+  /**
+   * How often an unavailable logging connection is probed
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_BREAKER_PROBE_MS = "NEO4J_LOGGING_BREAKER_PROBE_MS";
+  public static final int DEFAULT_BREAKER_PROBE_MS = 5000;
+
+  /**
+   * How often the step metrics of a running transformation are written as a (:Snapshot), 0 disables this (the default)
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_HEARTBEAT_MS = "NEO4J_LOGGING_HEARTBEAT_MS";
+  public static final int DEFAULT_HEARTBEAT_MS = 0;
+
+  /**
+   * The size of the time buckets of the (:ExecutionAggregate) nodes in milliseconds
+   */
+  public static final String VARIABLE_NEO4J_LOGGING_AGGREGATE_BUCKET_MS = "NEO4J_LOGGING_AGGREGATE_BUCKET_MS";
+  public static final int DEFAULT_AGGREGATE_BUCKET_MS = 60000;
 
 }
@@ -24,6 +24,7 @@ package com.neo4j.kettle.logging.step;
 
 import com.neo4j.kettle.logging.Defaults;
 import com.neo4j.kettle.logging.util.LoggingCore;
+import com.neo4j.kettle.logging.util.MetaStoreUtil;
 import com.neo4j.kettle.logging.util.WorkLambda;
 import org.apache.commons.lang.StringUtils;
 import org.neo4j.driver.Record;
@@ -42,8 +43,6 @@ import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -201,108 +200,65 @@ public class GetLoggingInfo extends BaseStep implements StepInterface {
   }
 
   private Date getPreviousTransExecution( String transformationName ) throws Exception {
-
-    final NeoConnection connection = LoggingCore.getConnection( getTrans().getMetaStore(), getTrans() );
-    if ( connection == null ) {
-      throw new KettleException( "Unable to find logging Neo4j connection (variable " + Defaults.VARIABLE_NEO4J_LOGGING_CONNECTION + ")" );
-    }
-
-    Map<String, Object> parameters = new HashMap<>();
-    parameters.put( "type", "TRANS" );
-    parameters.put( "trans", transformationName );
-    parameters.put( "status", Trans.STRING_FINISHED );
-
-    String cypher = "MATCH(e:Execution { type: $type, name : $trans }) "
-      + "WHERE e.status = $status "
-      + "RETURN e.name AS Name, e.executionStart AS startDate, e.errors AS errors, e.id AS id "
-      + "ORDER BY startDate DESC "
-      + "LIMIT 1 ";
-
-    return getResultStartDate(log, connection, cypher, parameters);
+    return getPreviousExecutionStart( "TRANS", transformationName, false );
   }
 
   private Date getPreviousTransSuccess( String transformationName ) throws Exception {
-
-    final NeoConnection connection = LoggingCore.getConnection( getTrans().getMetaStore(), getTrans() );
-    if ( connection == null ) {
-      throw new KettleException( "Unable to find logging Neo4j connection (variable " + Defaults.VARIABLE_NEO4J_LOGGING_CONNECTION + ")" );
-    }
-
-    Map<String, Object> parameters = new HashMap<>();
-    parameters.put( "type", "TRANS" );
-    parameters.put( "trans", transformationName );
-    parameters.put( "status", Trans.STRING_FINISHED );
-
-    String cypher = "MATCH(e:Execution { type: $type, name : $trans }) "
-      + "WHERE e.errors = 0 "
-      + "  AND e.status = $status "
-      + "RETURN e.name AS Name, e.executionStart AS startDate, e.errors AS errors, e.id AS id "
-      + "ORDER BY startDate DESC "
-      + "LIMIT 1 ";
-
-    return getResultStartDate(log, connection, cypher, parameters);
+    return getPreviousExecutionStart( "TRANS", transformationName, true );
   }
 
   private Date getPreviousJobExecution( String jobName ) throws Exception {
-
-    final NeoConnection connection = LoggingCore.getConnection( getTrans().getMetaStore(), getTrans() );
-    if ( connection == null ) {
-      throw new KettleException( "Unable to find logging Neo4j connection (variable " + Defaults.VARIABLE_NEO4J_LOGGING_CONNECTION + ")" );
-    }
-
-    Map<String, Object> parameters = new HashMap<>();
-    parameters.put( "type", "JOB" );
-    parameters.put( "job", jobName );
-    parameters.put( "status", Trans.STRING_FINISHED );
-
-    String cypher = "MATCH(e:Execution { type: $type, name : $job }) "
-      + "WHERE e.status = $status "
-      + "RETURN e.name AS Name, e.executionStart AS startDate, e.errors AS errors, e.id AS id "
-      + "ORDER BY startDate DESC "
-      + "LIMIT 1 ";
-
-    return getResultStartDate(log, connection, cypher, parameters);
+    return getPreviousExecutionStart( "JOB", jobName, false );
   }
 
   private Date getPreviousJobSuccess( String jobName ) throws Exception {
+    return getPreviousExecutionStart( "JOB", jobName, true );
+  }
+
+  /**
+   * Look up the start of the last finished execution of a transformation or job.
+   * The executionStart is a native datetime so the index on it can be used to sort.
+   * Only when nothing is found we look at the date strings written by older versions of the plugin.
+   */
+  private Date getPreviousExecutionStart( String type, String name, boolean successOnly ) throws Exception {
 
-    final NeoConnection connection = LoggingCore.getConnection( getTrans().getMetaStore(), getTrans() );
+    final NeoConnection connection = LoggingCore.findConnection( MetaStoreUtil.findMetaStore( getTrans() ), getTrans() );
     if ( connection == null ) {
       throw new KettleException( "Unable to find logging Neo4j connection (variable " + Defaults.VARIABLE_NEO4J_LOGGING_CONNECTION + ")" );
     }
 
     Map<String, Object> parameters = new HashMap<>();
-    parameters.put( "type", "JOB" );
-    parameters.put( "job", jobName );
+    parameters.put( "type", type );
+    parameters.put( "name", name );
     parameters.put( "status", Trans.STRING_FINISHED );
 
-    String cypher = "MATCH(e:Execution { type: $type, name : $job }) "
-      + "WHERE e.errors = 0 "
+    Date startDate = getResultStartDate( log, connection, getStartDateCypher( successOnly, "e.executionStart >= datetime({epochMillis: 0})" ), parameters );
+    if ( startDate == null ) {
+      startDate = getResultStartDate( log, connection, getStartDateCypher( successOnly, "e.executionStart >= ''" ), parameters );
+    }
+    return startDate;
+  }
+
+  private String getStartDateCypher( boolean successOnly, String startCondition ) {
+    return "MATCH(e:Execution { type: $type, name : $name }) "
+      + "WHERE " + startCondition + " "
+      + ( successOnly ? "  AND e.errors = 0 " : "" )
       + "  AND e.status = $status "
       + "RETURN e.name AS Name, e.executionStart AS startDate, e.errors AS errors, e.id AS id "
-      + "ORDER BY startDate DESC "
+      + "ORDER BY e.executionStart DESC "
       + "LIMIT 1 ";
-
-    return getResultStartDate(log, connection, cypher, parameters);
   }
 
   private Date getResultStartDate( LogChannelInterface log, NeoConnection connection, String cypher, Map<String, Object> parameters ) throws Exception {
-    return LoggingCore.executeCypher( log, connection, cypher, parameters, result -> {
-      try {
-        return getResultDate( result, "startDate" );
-      } catch ( ParseException e ) {
-        throw new RuntimeException( "Unable to get start date with cypher : "+cypher, e );
-      }
-    } );
+    return LoggingCore.executeCypher( log, connection, cypher, parameters, this::getResultDate );
   }
 
-  private Date getResultDate( Result result, String startDate ) throws ParseException {
+  private Date getResultDate( Result result ) {
     // One row, get it
     //
     if ( result.hasNext() ) {
       Record record = result.next();
-      String string = record.get( "startDate" ).asString();// Dates in logging are in String formats
-      return new SimpleDateFormat( "yyyy/MM/dd'T'HH:mm:ss" ).parse( string );
+      return LoggingCore.toDate( record.get( "startDate" ) );
     }
 
     return null;
@@ -1,5 +1,9 @@
 package com.neo4j.kettle.logging.trans;
 
+import com.neo4j.kettle.logging.util.ConnectionCache;
+import com.neo4j.kettle.logging.util.DriverRegistry;
+import com.neo4j.kettle.logging.util.LoggingSchema;
+import com.neo4j.kettle.logging.util.MetadataVersions;
 import com.neo4j.kettle.spoon.NeoLoggingHelper;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.extension.ExtensionPoint;
@@ -17,6 +21,13 @@ public class EnvironmentChangedExtensionPoint implements ExtensionPointInterface
 
     String environmentName = (String) object;
 
+    // The new environment can log to another database
+    //
+    ConnectionCache.clear();
+    MetadataVersions.clear();
+    LoggingSchema.reset();
+    DriverRegistry.closeAll();
+
     // Only in Spoon...
     //
     if ( Spoon.getInstance()!=null) {
@@ -0,0 +1,121 @@
+package com.neo4j.kettle.logging.trans;
+
+import com.neo4j.kettle.logging.util.LoggingCore;
+import com.neo4j.kettle.logging.writer.LoggingEvent;
+import com.neo4j.kettle.logging.writer.LoggingWriter;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes the status and step metrics of a running transformation as a (:Snapshot) node.
+ * Every snapshot holds the metrics of all step copies in parallel arrays so a heartbeat is a single statement.
+ * Snapshots are numbered per execution and merged on that number so a heartbeat which is written again,
+ * for example when it's replayed from the spool, doesn't create a second snapshot.
+ *
+ * (:Execution)-[:HAS_SNAPSHOT]->(:Snapshot { id, nr, snapshotDate, durationMs, status, stepNames, stepCopies, linesRead, ... })
+ */
+public class TransHeartbeat implements Runnable {
+
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+    Thread thread = new Thread( runnable, "Neo4j logging heartbeat" );
+    thread.setDaemon( true );
+    return thread;
+  } );
+
+  private LogChannelInterface log;
+  private NeoConnection connection;
+  private Trans trans;
+  private long startTime;
+  private long nr;
+  private ScheduledFuture<?> future;
+  private boolean stopped;
+
+  public TransHeartbeat( LogChannelInterface log, NeoConnection connection, Trans trans ) {
+    this.log = log;
+    this.connection = connection;
+    this.trans = trans;
+  }
+
+  /**
+   * Start writing a heartbeat every interval
+   *
+   * @param intervalMs The heartbeat interval in milliseconds
+   */
+  public synchronized void start( long intervalMs ) {
+    startTime = System.currentTimeMillis();
+    future = scheduler.scheduleAtFixedRate( this, intervalMs, intervalMs, TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Stop the heartbeat. No heartbeat is submitted after this returns so it can't overwrite the end of the execution.
+   */
+  public synchronized void stop() {
+    stopped = true;
+    if ( future != null ) {
+      future.cancel( false );
+    }
+  }
+
+  @Override public synchronized void run() {
+    if ( stopped || trans.isFinished() ) {
+      return;
+    }
+    try {
+      List<String> stepNames = new ArrayList<>();
+      List<Long> stepCopies = new ArrayList<>();
+      List<Long> linesRead = new ArrayList<>();
+      List<Long> linesWritten = new ArrayList<>();
+      List<Long> linesRejected = new ArrayList<>();
+      List<Long> errors = new ArrayList<>();
+      for ( StepMetaDataCombi combi : trans.getSteps() ) {
+        stepNames.add( combi.stepname );
+        stepCopies.add( (long) combi.copy );
+        linesRead.add( combi.step.getLinesRead() );
+        linesWritten.add( combi.step.getLinesWritten() );
+        linesRejected.add( combi.step.getLinesRejected() );
+        errors.add( combi.step.getErrors() );
+      }
+
+      Map<String, Object> pars = new HashMap<>();
+      pars.put( "transName", trans.getTransMeta().getName() );
+      pars.put( "type", TransLoggingExtensionPoint.EXECUTION_TYPE_TRANSFORMATION );
+      pars.put( "id", trans.getLogChannelId() );
+      pars.put( "nr", ++nr );
+      pars.put( "snapshotDate", LoggingCore.toDateTime( new Date() ) );
+      pars.put( "durationMs", System.currentTimeMillis() - startTime );
+      pars.put( "status", trans.getStatus() );
+      pars.put( "stepNames", stepNames );
+      pars.put( "stepCopies", stepCopies );
+      pars.put( "linesRead", linesRead );
+      pars.put( "linesWritten", linesWritten );
+      pars.put( "linesRejected", linesRejected );
+      pars.put( "errors", errors );
+
+      StringBuilder cypher = new StringBuilder();
+      cypher.append( "MATCH (exec:Execution { name : $transName, type : $type, id : $id } ) " );
+      cypher.append( "SET exec.status = $status, exec.lastSnapshotDate = $snapshotDate " );
+      cypher.append( "MERGE (exec)-[:HAS_SNAPSHOT]->(snapshot:Snapshot { id : $id, nr : $nr } ) " );
+      cypher.append( "SET snapshot.snapshotDate = $snapshotDate, snapshot.durationMs = $durationMs, snapshot.status = $status" );
+      cypher.append( ", snapshot.stepNames = $stepNames, snapshot.stepCopies = $stepCopies, snapshot.linesRead = $linesRead" );
+      cypher.append( ", snapshot.linesWritten = $linesWritten, snapshot.linesRejected = $linesRejected, snapshot.errors = $errors " );
+
+      LoggingEvent event = new LoggingEvent( "transformation heartbeat", trans.getLogChannelId(), log, connection );
+      event.addStatement( cypher.toString(), pars );
+      LoggingWriter.getInstance().submit( event );
+    } catch ( Exception e ) {
+      log.logError( "Error creating Neo4j logging heartbeat", e );
+    }
+  }
+}
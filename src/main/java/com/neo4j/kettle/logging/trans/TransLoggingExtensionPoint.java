@@ -1,29 +1,34 @@
 package com.neo4j.kettle.logging.trans;
 
 import com.neo4j.kettle.logging.Defaults;
+import com.neo4j.kettle.logging.util.ExecutionAggregator;
 import com.neo4j.kettle.logging.util.LoggingCore;
+import com.neo4j.kettle.logging.util.LoggingText;
+import com.neo4j.kettle.logging.util.LoggingTextCollector;
+import com.neo4j.kettle.logging.util.LoggingTextNodes;
+import com.neo4j.kettle.logging.util.LoggingTextPolicy;
+import com.neo4j.kettle.logging.util.MetadataVersions;
 import com.neo4j.kettle.logging.util.MetaStoreUtil;
-import org.neo4j.driver.Session;
-import org.neo4j.driver.Transaction;
-import org.neo4j.driver.TransactionWork;
+import com.neo4j.kettle.logging.util.SamplingPolicy;
+import com.neo4j.kettle.logging.writer.LoggingEvent;
+import com.neo4j.kettle.logging.writer.LoggingWriter;
 import org.neo4j.kettle.shared.NeoConnection;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.extension.ExtensionPoint;
 import org.pentaho.di.core.extension.ExtensionPointInterface;
-import org.pentaho.di.core.logging.KettleLogStore;
 import org.pentaho.di.core.logging.LogChannelInterface;
-import org.pentaho.di.core.logging.LoggingHierarchy;
 import org.pentaho.di.core.logging.LoggingObjectType;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransHopMeta;
 import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.performance.StepPerformanceSnapShot;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.metastore.api.IMetaStore;
 
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -39,6 +44,7 @@ public class TransLoggingExtensionPoint implements ExtensionPointInterface {
 
   public static final String TRANS_START_DATE = "TRANS_START_DATE";
   public static final String TRANS_END_DATE = "TRANS_END_DATE";
+  public static final String TRANS_METADATA_VERSION = "TRANS_METADATA_VERSION";
 
   public static final String EXECUTION_TYPE_TRANSFORMATION = LoggingObjectType.TRANS.name();
   public static final String EXECUTION_TYPE_STEP = LoggingObjectType.STEP.name();
@@ -72,26 +78,64 @@ public class TransLoggingExtensionPoint implements ExtensionPointInterface {
         log.logBasic( "Warning! Unable to find a metastore to load Neo4j connection to log to '" + connectionName +"'" );
         return;
       }
-      final NeoConnection connection = LoggingCore.getConnection( metaStore, trans );
+      final NeoConnection connection = LoggingCore.findConnection( metaStore, trans );
       if ( connection == null ) {
         log.logBasic( "Warning! Unable to find Neo4j connection to log to : " + connectionName );
         return;
       }
       log.logDetailed( "Logging transformation information to Neo4j connection : " + connection.getName() );
 
-      Session session = connection.getSession( log );
+      // Collect the logging text of the transformation and its steps while it runs
+      //
+      LoggingTextCollector.getInstance().track( trans.getLogChannelId(), false );
 
-      logTransformationMetadata( log, session, connection, trans );
-      logStartOfTransformation( log, session, connection, trans );
+      // Sub-transformations executed over and over might only get a summary, that's decided when they end
+      //
+      final boolean sampling = SamplingPolicy.isSampling( trans );
+      if ( !sampling ) {
+        logTransformationMetadata( log, connection, trans );
+        logStartOfTransformation( log, connection, trans );
+      }
+
+      // Report the step metrics periodically while the transformation runs
+      //
+      final TransHeartbeat heartbeat = new TransHeartbeat( log, connection, trans );
+      int heartbeatMs = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_HEARTBEAT_MS, Defaults.DEFAULT_HEARTBEAT_MS );
+      if ( heartbeatMs > 0 && !sampling ) {
+        heartbeat.start( heartbeatMs );
+      }
 
       trans.addTransListener( new TransAdapter() {
         @Override public void transFinished( Trans trans ) throws KettleException {
-          logEndOfTransformation( log, session, connection, trans );
+          heartbeat.stop();
+          try {
+            if ( sampling ) {
+              Date startDate = (Date) trans.getExtensionDataMap().get( TRANS_START_DATE );
+              if ( SamplingPolicy.isFullDetail( trans, System.currentTimeMillis() - startDate.getTime() ) ) {
+                logTransformationMetadata( log, connection, trans );
+                logStartOfTransformation( log, connection, trans );
+                logEndOfTransformation( log, connection, trans );
+              } else if ( SamplingPolicy.isAggregating( trans ) ) {
+                Result result = trans.getResult();
+                ExecutionAggregator.getInstance().add( log, connection, EXECUTION_TYPE_TRANSFORMATION, trans.getTransMeta().getName(),
+                  System.currentTimeMillis() - startDate.getTime(), result.getNrErrors(), result.getNrLinesRead(),
+                  result.getNrLinesWritten(), result.getNrLinesRejected() );
+                SamplingPolicy.aggregated( trans.getLogChannelId() );
+              } else {
+                logSummaryOfTransformation( log, connection, trans );
+                SamplingPolicy.summarized( trans.getLogChannelId() );
+              }
+            } else {
+              logEndOfTransformation( log, connection, trans );
+            }
+          } finally {
+            LoggingTextCollector.getInstance().release( trans.getLogChannelId() );
+          }
 
           // If there are no other parents, we now have the complete log channel hierarchy
           //
           if ( trans.getParentJob() == null && trans.getParentTrans() == null ) {
-            logHierarchy( log, session, connection, trans.getLoggingHierarchy(), trans.getLogChannelId() );
+            LoggingCore.writeHierarchies( log, connection, trans.getLoggingHierarchy(), trans.getLogChannelId() );
           }
         }
       } );
@@ -106,284 +150,458 @@ public class TransLoggingExtensionPoint implements ExtensionPointInterface {
 
   }
 
-  private void logTransformationMetadata( final LogChannelInterface log, final Session session, final NeoConnection connection, final Trans trans ) throws KettleException {
+  private void logTransformationMetadata( final LogChannelInterface log, final NeoConnection connection, final Trans trans ) throws KettleException {
     log.logDetailed( "Logging transformation metadata to Neo4j connection : " + connection.getName() );
 
     final TransMeta transMeta = trans.getTransMeta();
 
-    synchronized ( session ) {
-      session.writeTransaction( new TransactionWork<Void>() {
-        @Override public Void execute( Transaction transaction ) {
-          try {
+    // Only write the metadata if this version of the transformation wasn't logged before
+    //
+    final String version = MetadataVersions.getFingerprint( transMeta );
+    trans.getExtensionDataMap().put( TRANS_METADATA_VERSION, version );
+    if ( !MetadataVersions.register( connection, version ) ) {
+      log.logDetailed( "Transformation metadata version " + version + " was already logged" );
+      return;
+    }
 
-            Map<String, Object> transPars = new HashMap<>();
-            transPars.put( "transName", transMeta.getName() );
-            transPars.put( "description", transMeta.getDescription() );
-            transPars.put( "filename", transMeta.getFilename() );
-            StringBuilder transCypher = new StringBuilder();
-            transCypher.append( "MERGE (trans:Transformation { name : $transName } ) " );
-            transCypher.append( "SET trans.filename = $filename, trans.description = $description " );
-            transaction.run( transCypher.toString(), transPars );
-
-            log.logDetailed( "Trans cypher : " + transCypher );
-
-            for ( StepMeta stepMeta : transMeta.getSteps() ) {
-
-              Map<String, Object> stepPars = new HashMap<>();
-              stepPars.put( "transName", transMeta.getName() );
-              stepPars.put( "stepName", stepMeta.getName() );
-              stepPars.put( "description", stepMeta.getDescription() );
-              stepPars.put( "pluginId", stepMeta.getStepID() );
-              stepPars.put( "copies", stepMeta.getCopies() );
-              stepPars.put( "locationX", stepMeta.getLocation().x );
-              stepPars.put( "locationY", stepMeta.getLocation().y );
-              stepPars.put( "drawn", stepMeta.isDrawn() );
-
-              StringBuilder stepCypher = new StringBuilder();
-              stepCypher.append( "MATCH (trans:Transformation { name : $transName } ) " );
-              stepCypher.append( "MERGE (step:Step { transName : $transName, name : $stepName } ) " );
-              stepCypher.append( "SET " );
-              stepCypher.append( "  step.description = $description " );
-              stepCypher.append( ", step.pluginId = $pluginId " );
-              stepCypher.append( ", step.copies = $copies " );
-              stepCypher.append( ", step.locationX = $locationX " );
-              stepCypher.append( ", step.locationY = $locationY " );
-              stepCypher.append( ", step.drawn = $drawn " );
-
-              // Also MERGE the relationship
-              //
-              stepCypher.append( "MERGE (step)-[rel:STEP_OF_TRANSFORMATION]->(trans) " );
-
-              log.logDetailed( "Step '" + stepMeta.getName() + "' cypher : " + stepCypher );
-
-              // run it
-              //
-              transaction.run( stepCypher.toString(), stepPars );
-            }
+    LoggingEvent event = new LoggingEvent( "transformation metadata", trans.getLogChannelId(), log, connection );
+    event.setFailureHandler( () -> MetadataVersions.unregister( connection, version ) );
 
-            // Save hops
-            //
-            for ( int i = 0; i < transMeta.nrTransHops(); i++ ) {
-              TransHopMeta hopMeta = transMeta.getTransHop( i );
-
-              Map<String, Object> hopPars = new HashMap<>();
-              hopPars.put( "fromStep", hopMeta.getFromStep().getName() );
-              hopPars.put( "toStep", hopMeta.getToStep().getName() );
-              hopPars.put( "transName", transMeta.getName() );
-
-              StringBuilder hopCypher = new StringBuilder();
-              hopCypher.append( "MATCH (from:Step { transName : $transName, name : $fromStep }) " );
-              hopCypher.append( "MATCH (to:Step { transName : $transName, name : $toStep }) " );
-              hopCypher.append( "MERGE (from)-[rel:WRITES_TO]->(to) " );
-              transaction.run( hopCypher.toString(), hopPars );
-            }
+    Map<String, Object> transPars = new HashMap<>();
+    transPars.put( "transName", transMeta.getName() );
+    transPars.put( "description", transMeta.getDescription() );
+    transPars.put( "filename", transMeta.getFilename() );
+    StringBuilder transCypher = new StringBuilder();
+    transCypher.append( "MERGE (trans:Transformation { name : $transName } ) " );
+    transCypher.append( "SET trans.filename = $filename, trans.description = $description " );
+    event.addStatement( transCypher.toString(), transPars );
 
-            transaction.commit();
-          } catch ( Exception e ) {
-            transaction.rollback();
-            log.logError( "Error logging transformation metadata", e );
-          }
-          return null;
-        }
-      } );
+    log.logDetailed( "Trans cypher : " + transCypher );
+
+    // All the steps in one go
+    //
+    List<Map<String, Object>> steps = new ArrayList<>();
+    for ( StepMeta stepMeta : transMeta.getSteps() ) {
+      Map<String, Object> stepPars = new HashMap<>();
+      stepPars.put( "stepName", stepMeta.getName() );
+      stepPars.put( "description", stepMeta.getDescription() );
+      stepPars.put( "pluginId", stepMeta.getStepID() );
+      stepPars.put( "copies", stepMeta.getCopies() );
+      stepPars.put( "locationX", stepMeta.getLocation().x );
+      stepPars.put( "locationY", stepMeta.getLocation().y );
+      stepPars.put( "drawn", stepMeta.isDrawn() );
+      steps.add( stepPars );
+    }
+
+    if ( !steps.isEmpty() ) {
+      Map<String, Object> stepsPars = new HashMap<>();
+      stepsPars.put( "transName", transMeta.getName() );
+      stepsPars.put( "steps", steps );
+
+      StringBuilder stepCypher = new StringBuilder();
+      stepCypher.append( "MATCH (trans:Transformation { name : $transName } ) " );
+      stepCypher.append( "UNWIND $steps AS s " );
+      stepCypher.append( "MERGE (step:Step { transName : $transName, name : s.stepName } )-[rel:STEP_OF_TRANSFORMATION]->(trans) " );
+      stepCypher.append( "SET " );
+      stepCypher.append( "  step.description = s.description " );
+      stepCypher.append( ", step.pluginId = s.pluginId " );
+      stepCypher.append( ", step.copies = s.copies " );
+      stepCypher.append( ", step.locationX = s.locationX " );
+      stepCypher.append( ", step.locationY = s.locationY " );
+      stepCypher.append( ", step.drawn = s.drawn " );
+
+      log.logDetailed( "Steps cypher : " + stepCypher );
+
+      event.addStatement( stepCypher.toString(), stepsPars );
+    }
+
+    // Save hops
+    //
+    List<Map<String, Object>> hops = new ArrayList<>();
+    for ( int i = 0; i < transMeta.nrTransHops(); i++ ) {
+      TransHopMeta hopMeta = transMeta.getTransHop( i );
+
+      Map<String, Object> hopPars = new HashMap<>();
+      hopPars.put( "fromStep", hopMeta.getFromStep().getName() );
+      hopPars.put( "toStep", hopMeta.getToStep().getName() );
+      hops.add( hopPars );
+    }
+
+    if ( !hops.isEmpty() ) {
+      Map<String, Object> hopsPars = new HashMap<>();
+      hopsPars.put( "transName", transMeta.getName() );
+      hopsPars.put( "hops", hops );
+
+      StringBuilder hopCypher = new StringBuilder();
+      hopCypher.append( "UNWIND $hops AS h " );
+      hopCypher.append( "MATCH (from:Step { transName : $transName, name : h.fromStep }) " );
+      hopCypher.append( "MATCH (to:Step { transName : $transName, name : h.toStep }) " );
+      hopCypher.append( "MERGE (from)-[rel:WRITES_TO]->(to) " );
+      event.addStatement( hopCypher.toString(), hopsPars );
     }
 
+    // The immutable version node
+    //
+    Map<String, Object> versionPars = new HashMap<>();
+    versionPars.put( "transName", transMeta.getName() );
+    versionPars.put( "version", version );
+    versionPars.put( "created", LoggingCore.toDateTime( new Date() ) );
+    versionPars.put( "nrSteps", transMeta.nrSteps() );
+    versionPars.put( "nrHops", transMeta.nrTransHops() );
+
+    StringBuilder versionCypher = new StringBuilder();
+    versionCypher.append( "MATCH (trans:Transformation { name : $transName } ) " );
+    versionCypher.append( "MERGE (version:TransformationVersion { name : $transName, version : $version } )-[rel:VERSION_OF_TRANSFORMATION]->(trans) " );
+    versionCypher.append( "ON CREATE SET " );
+    versionCypher.append( "  version.created = $created " );
+    versionCypher.append( ", version.nrSteps = $nrSteps " );
+    versionCypher.append( ", version.nrHops = $nrHops " );
+    versionCypher.append( "ON MATCH SET " );
+    versionCypher.append( "  version.created = coalesce(version.created, $created) " );
+    versionCypher.append( ", version.nrSteps = coalesce(version.nrSteps, $nrSteps) " );
+    versionCypher.append( ", version.nrHops = coalesce(version.nrHops, $nrHops) " );
+    event.addStatement( versionCypher.toString(), versionPars );
+
+    LoggingWriter.getInstance().submit( event );
   }
 
-  private void logStartOfTransformation( final LogChannelInterface log, final Session session, final NeoConnection connection, final Trans trans ) throws KettleException {
+  private void logStartOfTransformation( final LogChannelInterface log, final NeoConnection connection, final Trans trans ) throws KettleException {
     log.logDetailed( "Logging execution start of transformation to Neo4j connection : " + connection.getName() );
 
     final TransMeta transMeta = trans.getTransMeta();
 
-    synchronized ( session ) {
+    LoggingEvent event = new LoggingEvent( "transformation start", trans.getLogChannelId(), log, connection );
 
-      session.writeTransaction( new TransactionWork<Void>() {
-        @Override public Void execute( Transaction transaction ) {
-          try {
-            // Create a new node for each log channel and it's owner
-            // Start with the transformation
-            //
-            LogChannelInterface channel = trans.getLogChannel();
-            Date startDate = (Date) trans.getExtensionDataMap().get( TRANS_START_DATE );
-
-            Map<String, Object> transPars = new HashMap<>();
-            transPars.put( "transName", transMeta.getName() );
-            transPars.put( "id", channel.getLogChannelId() );
-            transPars.put( "type", EXECUTION_TYPE_TRANSFORMATION );
-            transPars.put( "executionStart", new SimpleDateFormat( "yyyy/MM/dd'T'HH:mm:ss" ).format( startDate ) );
-            transPars.put( "status", trans.getStatus() );
-
-            StringBuilder transCypher = new StringBuilder();
-            transCypher.append( "MATCH (trans:Transformation { name : $transName } ) " );
-            transCypher.append( "MERGE (exec:Execution { name : $transName, type : $type, id : $id } ) " );
-            transCypher.append( "SET " );
-            transCypher.append( "  exec.executionStart = $executionStart " );
-            transCypher.append( ", exec.status = $status " );
-            transCypher.append( "MERGE (exec)-[r:EXECUTION_OF_TRANSFORMATION]->(trans) " );
-
-            transaction.run( transCypher.toString(), transPars );
-
-            transaction.commit();
-          } catch ( Exception e ) {
-            transaction.rollback();
-            log.logError( "Error logging transformation start", e );
-          }
+    // Create a new node for each log channel and it's owner
+    // Start with the transformation
+    //
+    LogChannelInterface channel = trans.getLogChannel();
+    Date startDate = (Date) trans.getExtensionDataMap().get( TRANS_START_DATE );
+
+    Map<String, Object> transPars = new HashMap<>();
+    transPars.put( "transName", transMeta.getName() );
+    transPars.put( "id", channel.getLogChannelId() );
+    transPars.put( "type", EXECUTION_TYPE_TRANSFORMATION );
+    transPars.put( "executionStart", LoggingCore.toDateTime( startDate ) );
+    transPars.put( "status", trans.getStatus() );
+    transPars.put( "version", trans.getExtensionDataMap().get( TRANS_METADATA_VERSION ) );
+    transPars.put( "created", LoggingCore.toDateTime( new Date() ) );
+    transPars.put( "nrSteps", transMeta.nrSteps() );
+    transPars.put( "nrHops", transMeta.nrTransHops() );
+
+    StringBuilder transCypher = new StringBuilder();
+    transCypher.append( "MERGE (trans:Transformation { name : $transName } ) " );
+    transCypher.append( "MERGE (exec:Execution { id : $id } ) SET exec.name = $transName, exec.type = $type " );
+    transCypher.append( "SET " );
+    transCypher.append( "  exec.executionStart = $executionStart " );
+    transCypher.append( ", exec.status = $status " );
+    transCypher.append( "MERGE (exec)-[r:EXECUTION_OF_TRANSFORMATION]->(trans) " );
+
+    // Link to the exact version of the metadata which was executed.
+    // The metadata event can be written after this one by another writer lane so the version is created the same way here.
+    //
+    transCypher.append( "MERGE (version:TransformationVersion { name : $transName, version : $version } )-[:VERSION_OF_TRANSFORMATION]->(trans) " );
+    transCypher.append( "ON CREATE SET version.created = $created, version.nrSteps = $nrSteps, version.nrHops = $nrHops " );
+    transCypher.append( "MERGE (exec)-[v:EXECUTION_OF_VERSION]->(version) " );
 
-          return null;
-        }
-      } );
-    }
+    event.addStatement( transCypher.toString(), transPars );
+
+    LoggingWriter.getInstance().submit( event );
   }
 
-  private void logEndOfTransformation( final LogChannelInterface log, final Session session, final NeoConnection connection, final Trans trans ) throws KettleException {
+  private void logEndOfTransformation( final LogChannelInterface log, final NeoConnection connection, final Trans trans ) throws KettleException {
     log.logDetailed( "Logging execution end of transformation to Neo4j connection : " + connection.getName() );
 
     final TransMeta transMeta = trans.getTransMeta();
 
-    synchronized ( session ) {
-      session.writeTransaction( new TransactionWork<Void>() {
-        @Override public Void execute( Transaction transaction ) {
-          try {
+    LoggingEvent event = new LoggingEvent( "transformation end", trans.getLogChannelId(), log, connection );
 
-            // Create a new node for each log channel and it's owner
-            // Start with the transformation
-            //
-            LogChannelInterface channel = trans.getLogChannel();
-            Result result = trans.getResult();
-            String transLogChannelId = trans.getLogChannelId();
-            String transLoggingText = KettleLogStore.getAppender().getBuffer( transLogChannelId, false ).toString();
-            Date endDate = new Date();
-            trans.getExtensionDataMap().put( TRANS_END_DATE, endDate );
-            Date startDate = (Date) trans.getExtensionDataMap().get( TRANS_START_DATE );
-
-            Map<String, Object> transPars = new HashMap<>();
-            transPars.put( "transName", transMeta.getName() );
-            transPars.put( "type", EXECUTION_TYPE_TRANSFORMATION );
-            transPars.put( "id", channel.getLogChannelId() );
-            transPars.put( "executionEnd", new SimpleDateFormat( "yyyy/MM/dd'T'HH:mm:ss" ).format( endDate ) );
-            transPars.put( "durationMs", endDate.getTime() - startDate.getTime() );
-            transPars.put( "errors", result.getNrErrors() );
-            transPars.put( "linesInput", result.getNrLinesInput() );
-            transPars.put( "linesOutput", result.getNrLinesOutput() );
-            transPars.put( "linesRead", result.getNrLinesRead() );
-            transPars.put( "linesWritten", result.getNrLinesWritten() );
-            transPars.put( "linesRejected", result.getNrLinesRejected() );
-            transPars.put( "loggingText", transLoggingText );
-            transPars.put( "status", trans.getStatus() );
-
-            StringBuilder transCypher = new StringBuilder();
-            transCypher.append( "MATCH (trans:Transformation { name : $transName } ) " );
-            transCypher.append( "MERGE (exec:Execution { name : $transName, type : $type, id : $id } ) " );
-            transCypher.append( "SET " );
-            transCypher.append( "  exec.executionEnd = $executionEnd " );
-            transCypher.append( ", exec.durationMs = $durationMs " );
-            transCypher.append( ", exec.status = $status " );
-            transCypher.append( ", exec.errors = $errors " );
-            transCypher.append( ", exec.linesInput = $linesInput " );
-            transCypher.append( ", exec.linesOutput = $linesOutput " );
-            transCypher.append( ", exec.linesRead = $linesRead " );
-            transCypher.append( ", exec.linesWritten = $linesWritten " );
-            transCypher.append( ", exec.linesRejected = $linesRejected " );
-            transCypher.append( ", exec.loggingText = $loggingText " );
-            transCypher.append( "MERGE (exec)-[r:EXECUTION_OF_TRANSFORMATION]->(trans) " );
-
-            transaction.run( transCypher.toString(), transPars );
-
-            // Also log every step copy
-            //
-            List<StepMetaDataCombi> combis = trans.getSteps();
-            for ( StepMetaDataCombi combi : combis ) {
-              String stepLogChannelId = combi.step.getLogChannel().getLogChannelId();
-              String stepLoggingText = KettleLogStore.getAppender().getBuffer( stepLogChannelId, false ).toString();
-              Map<String, Object> stepPars = new HashMap<>();
-              stepPars.put( "transName", transMeta.getName() );
-              stepPars.put( "name", combi.stepname );
-              stepPars.put( "type", EXECUTION_TYPE_STEP );
-              stepPars.put( "id", stepLogChannelId );
-              stepPars.put( "transId", transLogChannelId );
-              stepPars.put( "copy", Long.valueOf( combi.copy ) );
-              stepPars.put( "status", combi.step.getStatus().getDescription() );
-              stepPars.put( "loggingText", stepLoggingText );
-              stepPars.put( "errors", combi.step.getErrors() );
-              stepPars.put( "linesRead", combi.step.getLinesRead() );
-              stepPars.put( "linesWritten", combi.step.getLinesWritten() );
-              stepPars.put( "linesInput", combi.step.getLinesInput() );
-              stepPars.put( "linesOutput", combi.step.getLinesOutput() );
-              stepPars.put( "linesRejected", combi.step.getLinesRejected() );
-
-              StringBuilder stepCypher = new StringBuilder();
-              stepCypher.append( "MATCH (step:Step { transName : $transName, name : $name } ) " );
-              stepCypher.append( "MERGE (exec:Execution { name : $name, type : $type, id : $id } ) " );
-              stepCypher.append( "SET " );
-              stepCypher.append( "  exec.transId = $transId " );
-              stepCypher.append( ", exec.copy = $copy " );
-              stepCypher.append( ", exec.status = $status " );
-              stepCypher.append( ", exec.loggingText = $loggingText " );
-              stepCypher.append( ", exec.errors = $errors " );
-              stepCypher.append( ", exec.linesRead = $linesRead " );
-              stepCypher.append( ", exec.linesWritten = $linesWritten " );
-              stepCypher.append( ", exec.linesInput = $linesInput " );
-              stepCypher.append( ", exec.linesOutput = $linesOutput " );
-              stepCypher.append( ", exec.linesRejected = $linesRejected " );
-              stepCypher.append( "MERGE (exec)-[r:EXECUTION_OF_STEP]->(step) " );
-
-              transaction.run( stepCypher.toString(), stepPars );
-
-              // Log graph usage as well
-              // This Map is left by the Neo4j step plugins : Neo4j Output and Neo4j Graph Output
-              //
-              Map<String, Map<String, Set<String>>> usageMap = (Map<String, Map<String, Set<String>>>) trans.getExtensionDataMap().get( Defaults.TRANS_NODE_UPDATES_GROUP );
-              if ( usageMap != null ) {
-                for ( String graphUsage : usageMap.keySet() ) {
-                  Map<String, Set<String>> stepsMap = usageMap.get( graphUsage );
-
-                  Set<String> labels = stepsMap.get( combi.stepname );
-                  if ( labels != null ) {
-                    for ( String label : labels ) {
-                      // Save relationship to GraphUsage node
-                      //
-                      Map<String, Object> usagePars = new HashMap<>();
-                      usagePars.put( "step", combi.stepname );
-                      usagePars.put( "type", "STEP" );
-                      usagePars.put( "id", stepLogChannelId );
-                      usagePars.put( "label", label );
-                      usagePars.put( "usage", graphUsage );
-
-                      StringBuilder usageCypher = new StringBuilder();
-                      usageCypher.append( "MATCH (step:Execution { name : $step, type : $type, id : $id } ) " );
-                      usageCypher.append( "MERGE (usage:Usage { usage : $usage, label : $label } ) " );
-                      usageCypher.append( "MERGE (step)-[r:PERFORMS_" + graphUsage + "]->(usage)" );
-
-                      transaction.run( usageCypher.toString(), usagePars );
-                    }
-                  }
-                }
-              }
-            }
+    // Create a new node for each log channel and it's owner
+    // Start with the transformation
+    //
+    LogChannelInterface channel = trans.getLogChannel();
+    Result result = trans.getResult();
+    String transLogChannelId = trans.getLogChannelId();
+    LoggingText transLoggingText = LoggingCore.getLoggingText( transLogChannelId, transLogChannelId, false );
+    Date endDate = new Date();
+    trans.getExtensionDataMap().put( TRANS_END_DATE, endDate );
+    Date startDate = (Date) trans.getExtensionDataMap().get( TRANS_START_DATE );
+
+    Map<String, Object> transPars = new HashMap<>();
+    transPars.put( "transName", transMeta.getName() );
+    transPars.put( "type", EXECUTION_TYPE_TRANSFORMATION );
+    transPars.put( "id", channel.getLogChannelId() );
+    transPars.put( "executionEnd", LoggingCore.toDateTime( endDate ) );
+    transPars.put( "durationMs", endDate.getTime() - startDate.getTime() );
+    transPars.put( "errors", result.getNrErrors() );
+    transPars.put( "linesInput", result.getNrLinesInput() );
+    transPars.put( "linesOutput", result.getNrLinesOutput() );
+    transPars.put( "linesRead", result.getNrLinesRead() );
+    transPars.put( "linesWritten", result.getNrLinesWritten() );
+    transPars.put( "linesRejected", result.getNrLinesRejected() );
+    transPars.put( "status", trans.getStatus() );
+
+    // The logging texts are written to separate (:LogText) nodes after the executions
+    //
+    List<Map<String, Object>> loggingTextChunks = new ArrayList<>();
+    LoggingTextPolicy.apply( transPars, transLoggingText );
+    LoggingTextNodes.moveToChunks( loggingTextChunks, channel.getLogChannelId(), transPars );
+
+    StringBuilder transCypher = new StringBuilder();
+    transCypher.append( "MERGE (trans:Transformation { name : $transName } ) " );
+    transCypher.append( "MERGE (exec:Execution { id : $id } ) SET exec.name = $transName, exec.type = $type " );
+    transCypher.append( "SET " );
+    transCypher.append( "  exec.executionEnd = $executionEnd " );
+    transCypher.append( ", exec.durationMs = $durationMs " );
+    transCypher.append( ", exec.status = $status " );
+    transCypher.append( ", exec.errors = $errors " );
+    transCypher.append( ", exec.linesInput = $linesInput " );
+    transCypher.append( ", exec.linesOutput = $linesOutput " );
+    transCypher.append( ", exec.linesRead = $linesRead " );
+    transCypher.append( ", exec.linesWritten = $linesWritten " );
+    transCypher.append( ", exec.linesRejected = $linesRejected " );
+    transCypher.append( ", exec.loggingTextLength = $loggingTextLength " );
+    transCypher.append( "MERGE (exec)-[r:EXECUTION_OF_TRANSFORMATION]->(trans) " );
+
+    event.addStatement( transCypher.toString(), transPars );
+
+    // Also log every step copy.
+    // All copies are sent as a list parameter, in chunks for very wide transformations.
+    // The chunks can be written in parallel, all copies of a step are kept together so its (:Step) node is only merged once.
+    //
+    List<StepMetaDataCombi> combis = trans.getSteps();
+    List<Map<String, Object>> stepExecutions = new ArrayList<>();
+    for ( StepMetaDataCombi combi : combis ) {
+      String stepLogChannelId = combi.step.getLogChannel().getLogChannelId();
+      LoggingText stepLoggingText = LoggingCore.getLoggingText( transLogChannelId, stepLogChannelId, false );
+      Map<String, Object> stepPars = new HashMap<>();
+      stepPars.put( "name", combi.stepname );
+      stepPars.put( "id", stepLogChannelId );
+      stepPars.put( "copy", Long.valueOf( combi.copy ) );
+      stepPars.put( "status", combi.step.getStatus().getDescription() );
+      LoggingTextPolicy.apply( stepPars, stepLoggingText );
+      LoggingTextNodes.moveToChunks( loggingTextChunks, stepLogChannelId, stepPars );
+      stepPars.put( "errors", combi.step.getErrors() );
+      stepPars.put( "linesRead", combi.step.getLinesRead() );
+      stepPars.put( "linesWritten", combi.step.getLinesWritten() );
+      stepPars.put( "linesInput", combi.step.getLinesInput() );
+      stepPars.put( "linesOutput", combi.step.getLinesOutput() );
+      stepPars.put( "linesRejected", combi.step.getLinesRejected() );
+      stepExecutions.add( stepPars );
+    }
+
+    Map<String, Object> stepsPars = new HashMap<>();
+    stepsPars.put( "transName", transMeta.getName() );
+    stepsPars.put( "type", EXECUTION_TYPE_STEP );
+    stepsPars.put( "transId", transLogChannelId );
 
-            transaction.commit();
-          } catch ( Exception e ) {
-            transaction.rollback();
-            log.logError( "Error logging transformation end", e );
+    // The step is merged together with its relationship to the transformation: that locks the transformation node
+    // so executions running at the same time on other writer lanes can't create the same step twice.
+    //
+    StringBuilder stepCypher = new StringBuilder();
+    stepCypher.append( "MERGE (trans:Transformation { name : $transName } ) " );
+    stepCypher.append( "WITH trans " );
+    stepCypher.append( "UNWIND $steps AS s " );
+    stepCypher.append( "MERGE (step:Step { transName : $transName, name : s.name } )-[:STEP_OF_TRANSFORMATION]->(trans) " );
+    stepCypher.append( "MERGE (exec:Execution { id : s.id } ) SET exec.name = s.name, exec.type = $type " );
+    stepCypher.append( "SET " );
+    stepCypher.append( "  exec.transId = $transId " );
+    stepCypher.append( ", exec.copy = s.copy " );
+    stepCypher.append( ", exec.status = s.status " );
+    stepCypher.append( ", exec.loggingTextLength = s.loggingTextLength " );
+    stepCypher.append( ", exec.errors = s.errors " );
+    stepCypher.append( ", exec.linesRead = s.linesRead " );
+    stepCypher.append( ", exec.linesWritten = s.linesWritten " );
+    stepCypher.append( ", exec.linesInput = s.linesInput " );
+    stepCypher.append( ", exec.linesOutput = s.linesOutput " );
+    stepCypher.append( ", exec.linesRejected = s.linesRejected " );
+    stepCypher.append( "MERGE (exec)-[r:EXECUTION_OF_STEP]->(step) " );
+
+    event.addParallelStatements( stepCypher.toString(), stepsPars, "steps", stepExecutions, "name" );
+
+    LoggingTextNodes.addStatements( event, loggingTextChunks );
+
+    // The step performance snapshots Kettle captured are stored on the step copy executions
+    //
+    if ( transMeta.isCapturingStepPerformanceSnapShots() && trans.getStepPerformanceSnapShots() != null ) {
+      addStepPerformanceSnapShots( event, trans, combis );
+    }
+
+    // Log graph usage as well
+    // This Map is left by the Neo4j step plugins : Neo4j Output and Neo4j Graph Output
+    // A relationship type can't be a parameter so there is one statement per usage type for all steps and labels.
+    //
+    Map<String, Map<String, Set<String>>> usageMap = (Map<String, Map<String, Set<String>>>) trans.getExtensionDataMap().get( Defaults.TRANS_NODE_UPDATES_GROUP );
+    if ( usageMap != null ) {
+      for ( String graphUsage : usageMap.keySet() ) {
+        Map<String, Set<String>> stepsMap = usageMap.get( graphUsage );
+
+        List<Map<String, Object>> usages = new ArrayList<>();
+        for ( StepMetaDataCombi combi : combis ) {
+          Set<String> labels = stepsMap.get( combi.stepname );
+          if ( labels != null ) {
+            for ( String label : labels ) {
+              Map<String, Object> usagePars = new HashMap<>();
+              usagePars.put( "step", combi.stepname );
+              usagePars.put( "id", combi.step.getLogChannel().getLogChannelId() );
+              usagePars.put( "label", label );
+              usages.add( usagePars );
+            }
           }
-          return null;
         }
-      } );
+        if ( usages.isEmpty() ) {
+          continue;
+        }
+
+        Map<String, Object> usagesPars = new HashMap<>();
+        usagesPars.put( "type", "STEP" );
+        usagesPars.put( "usage", graphUsage );
+
+        // Save relationship to GraphUsage node
+        //
+        StringBuilder usageCypher = new StringBuilder();
+        usageCypher.append( "UNWIND $usages AS u " );
+        usageCypher.append( "MATCH (step:Execution { name : u.step, type : $type, id : u.id } ) " );
+        usageCypher.append( "MERGE (usage:Usage { usage : $usage, label : u.label } ) " );
+        usageCypher.append( "MERGE (step)-[r:PERFORMS_" + graphUsage + "]->(usage)" );
+
+        event.addParallelStatements( usageCypher.toString(), usagesPars, "usages", usages, "label" );
+      }
     }
+
+    LoggingWriter.getInstance().submit( event );
   }
 
+  /**
+   * Only log a single execution node with the totals, no metadata, step executions or logging text
+   */
+  private void logSummaryOfTransformation( final LogChannelInterface log, final NeoConnection connection, final Trans trans ) {
+    log.logDetailed( "Logging execution summary of transformation to Neo4j connection : " + connection.getName() );
 
-  private void logHierarchy( final LogChannelInterface log, final Session session, final NeoConnection connection,
-                             final List<LoggingHierarchy> hierarchies, String rootLogChannelId ) {
-    synchronized ( session ) {
-      session.writeTransaction( new TransactionWork<Void>() {
-        @Override public Void execute( Transaction transaction ) {
-          // Update create the Execution relationships
-          //
-          LoggingCore.writeHierarchies( log, connection, transaction, hierarchies, rootLogChannelId );
-          return null;
-        }
-      } );
+    final TransMeta transMeta = trans.getTransMeta();
+
+    LoggingEvent event = new LoggingEvent( "transformation summary", trans.getLogChannelId(), log, connection );
+
+    Result result = trans.getResult();
+    Date endDate = new Date();
+    trans.getExtensionDataMap().put( TRANS_END_DATE, endDate );
+    Date startDate = (Date) trans.getExtensionDataMap().get( TRANS_START_DATE );
+
+    Map<String, Object> transPars = new HashMap<>();
+    transPars.put( "transName", transMeta.getName() );
+    transPars.put( "type", EXECUTION_TYPE_TRANSFORMATION );
+    transPars.put( "id", trans.getLogChannelId() );
+    transPars.put( "executionStart", LoggingCore.toDateTime( startDate ) );
+    transPars.put( "executionEnd", LoggingCore.toDateTime( endDate ) );
+    transPars.put( "durationMs", endDate.getTime() - startDate.getTime() );
+    transPars.put( "status", trans.getStatus() );
+    transPars.put( "errors", result.getNrErrors() );
+    transPars.put( "linesInput", result.getNrLinesInput() );
+    transPars.put( "linesOutput", result.getNrLinesOutput() );
+    transPars.put( "linesRead", result.getNrLinesRead() );
+    transPars.put( "linesWritten", result.getNrLinesWritten() );
+    transPars.put( "linesRejected", result.getNrLinesRejected() );
+
+    StringBuilder transCypher = new StringBuilder();
+    transCypher.append( "MERGE (trans:Transformation { name : $transName } ) " );
+    transCypher.append( "MERGE (exec:Execution { id : $id } ) SET exec.name = $transName, exec.type = $type " );
+    transCypher.append( "SET " );
+    transCypher.append( "  exec.executionStart = $executionStart " );
+    transCypher.append( ", exec.executionEnd = $executionEnd " );
+    transCypher.append( ", exec.durationMs = $durationMs " );
+    transCypher.append( ", exec.status = $status " );
+    transCypher.append( ", exec.errors = $errors " );
+    transCypher.append( ", exec.linesInput = $linesInput " );
+    transCypher.append( ", exec.linesOutput = $linesOutput " );
+    transCypher.append( ", exec.linesRead = $linesRead " );
+    transCypher.append( ", exec.linesWritten = $linesWritten " );
+    transCypher.append( ", exec.linesRejected = $linesRejected " );
+    transCypher.append( ", exec.summary = true " );
+    transCypher.append( "MERGE (exec)-[r:EXECUTION_OF_TRANSFORMATION]->(trans) " );
+
+    event.addStatement( transCypher.toString(), transPars );
+
+    LoggingWriter.getInstance().submit( event );
+  }
+
+  /**
+   * Every series of performance snapshots of a step copy is stored as parallel arrays on its execution node
+   */
+  private void addStepPerformanceSnapShots( LoggingEvent event, Trans trans, List<StepMetaDataCombi> combis ) {
+    Map<String, List<StepPerformanceSnapShot>> snapShotsMap = trans.getStepPerformanceSnapShots();
+
+    List<Map<String, Object>> series = new ArrayList<>();
+    for ( StepMetaDataCombi combi : combis ) {
+      List<StepPerformanceSnapShot> snapShots = snapShotsMap.get( combi.stepname + "." + combi.copy );
+      if ( snapShots == null || snapShots.isEmpty() ) {
+        continue;
+      }
+      int size = snapShots.size();
+      long[] dates = new long[ size ];
+      long[] timeDifferences = new long[ size ];
+      long[] linesRead = new long[ size ];
+      long[] linesWritten = new long[ size ];
+      long[] linesInput = new long[ size ];
+      long[] linesOutput = new long[ size ];
+      long[] linesUpdated = new long[ size ];
+      long[] linesRejected = new long[ size ];
+      long[] errors = new long[ size ];
+      long[] inputBufferSizes = new long[ size ];
+      long[] outputBufferSizes = new long[ size ];
+      for ( int i = 0; i < size; i++ ) {
+        StepPerformanceSnapShot snapShot = snapShots.get( i );
+        dates[ i ] = snapShot.getDate() == null ? 0L : snapShot.getDate().getTime();
+        timeDifferences[ i ] = snapShot.getTimeDifference();
+        linesRead[ i ] = snapShot.getLinesRead();
+        linesWritten[ i ] = snapShot.getLinesWritten();
+        linesInput[ i ] = snapShot.getLinesInput();
+        linesOutput[ i ] = snapShot.getLinesOutput();
+        linesUpdated[ i ] = snapShot.getLinesUpdated();
+        linesRejected[ i ] = snapShot.getLinesRejected();
+        errors[ i ] = snapShot.getErrors();
+        inputBufferSizes[ i ] = snapShot.getInputBufferSize();
+        outputBufferSizes[ i ] = snapShot.getOutputBufferSize();
+      }
+
+      Map<String, Object> seriesPars = new HashMap<>();
+      seriesPars.put( "name", combi.stepname );
+      seriesPars.put( "id", combi.step.getLogChannel().getLogChannelId() );
+      seriesPars.put( "dates", dates );
+      seriesPars.put( "timeDifferences", timeDifferences );
+      seriesPars.put( "linesRead", linesRead );
+      seriesPars.put( "linesWritten", linesWritten );
+      seriesPars.put( "linesInput", linesInput );
+      seriesPars.put( "linesOutput", linesOutput );
+      seriesPars.put( "linesUpdated", linesUpdated );
+      seriesPars.put( "linesRejected", linesRejected );
+      seriesPars.put( "errors", errors );
+      seriesPars.put( "inputBufferSizes", inputBufferSizes );
+      seriesPars.put( "outputBufferSizes", outputBufferSizes );
+      series.add( seriesPars );
+    }
+    if ( series.isEmpty() ) {
+      return;
     }
+
+    Map<String, Object> pars = new HashMap<>();
+    pars.put( "type", EXECUTION_TYPE_STEP );
+
+    StringBuilder cypher = new StringBuilder();
+    cypher.append( "UNWIND $series AS p " );
+    cypher.append( "MATCH (exec:Execution { name : p.name, type : $type, id : p.id } ) " );
+    cypher.append( "SET " );
+    cypher.append( "  exec.perfDates = p.dates " );
+    cypher.append( ", exec.perfTimeDifferences = p.timeDifferences " );
+    cypher.append( ", exec.perfLinesRead = p.linesRead " );
+    cypher.append( ", exec.perfLinesWritten = p.linesWritten " );
+    cypher.append( ", exec.perfLinesInput = p.linesInput " );
+    cypher.append( ", exec.perfLinesOutput = p.linesOutput " );
+    cypher.append( ", exec.perfLinesUpdated = p.linesUpdated " );
+    cypher.append( ", exec.perfLinesRejected = p.linesRejected " );
+    cypher.append( ", exec.perfErrors = p.errors " );
+    cypher.append( ", exec.perfInputBufferSizes = p.inputBufferSizes " );
+    cypher.append( ", exec.perfOutputBufferSizes = p.outputBufferSizes " );
+
+    event.addParallelStatements( cypher.toString(), pars, "series", series, null );
   }
 }
@@ -0,0 +1,142 @@
+package com.neo4j.kettle.logging.util;
+
+import com.neo4j.kettle.logging.Defaults;
+import org.neo4j.kettle.core.metastore.MetaStoreFactory;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the logging connections loaded from a metastore so they aren't read and deserialized for every execution.
+ * A connection is cached per metastore and connection name. Executions which resolve every setting of the connection
+ * to the same values share an initialized connection. That connection has its own copy of the variables
+ * so it doesn't keep the execution which initialized it from being garbage collected.
+ * Metastores are weakly referenced so they can be garbage collected.
+ * Entries expire after a while so that changes to the connection metadata are picked up.
+ */
+public class ConnectionCache {
+
+  private static final int MAX_TARGETS = 100;
+
+  private static final Map<IMetaStore, Map<String, CachedConnection>> connections = Collections.synchronizedMap( new WeakHashMap<>() );
+
+  /**
+   * Get a logging connection initialized with the variables of the given space, loading it from the metastore if needed.
+   *
+   * @param metaStore      The metastore to load the connection from
+   * @param connectionName The name of the connection
+   * @param space          The variables to initialize the connection with
+   * @return The connection or null if it doesn't exist
+   */
+  public static NeoConnection getConnection( IMetaStore metaStore, String connectionName, VariableSpace space ) throws MetaStoreException {
+    int ttlMs = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_CONNECTION_CACHE_MS, Defaults.DEFAULT_CONNECTION_CACHE_MS );
+    if ( ttlMs <= 0 ) {
+      return loadConnection( metaStore, connectionName, space );
+    }
+
+    Map<String, CachedConnection> metaStoreConnections = connections.computeIfAbsent( metaStore, ms -> new ConcurrentHashMap<>() );
+    CachedConnection cached = metaStoreConnections.get( connectionName );
+    if ( cached == null || cached.isExpired() ) {
+      NeoConnection template = loadElement( metaStore, connectionName );
+      if ( template == null ) {
+        metaStoreConnections.remove( connectionName );
+        return null;
+      }
+      cached = new CachedConnection( template, System.currentTimeMillis() + ttlMs );
+      metaStoreConnections.put( connectionName, cached );
+    }
+
+    // Only the values the connection actually uses decide if an initialized connection can be shared
+    //
+    String target = getTarget( cached.template, space );
+    NeoConnection connection = cached.targets.get( target );
+    if ( connection == null ) {
+      connection = loadConnection( metaStore, connectionName, space );
+      if ( connection == null ) {
+        return null;
+      }
+      synchronized ( cached.targets ) {
+        if ( cached.targets.size() >= MAX_TARGETS ) {
+          cached.targets.clear();
+        }
+        cached.targets.put( target, connection );
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * @param connection An initialized connection
+   * @return The name of the connection with every setting it resolves to, the password as a SHA-256 digest
+   */
+  public static String getTarget( NeoConnection connection ) {
+    return getTarget( connection, connection );
+  }
+
+  private static String getTarget( NeoConnection connection, VariableSpace space ) {
+    StringBuilder target = new StringBuilder( connection.getName() );
+    target.append( "/" ).append( space.environmentSubstitute( connection.getServer() ) );
+    target.append( ":" ).append( space.environmentSubstitute( connection.getBoltPort() ) );
+    target.append( "/" ).append( space.environmentSubstitute( connection.getUsername() ) );
+    target.append( "/" ).append( DriverRegistry.digest( Const.NVL( space.environmentSubstitute( connection.getPassword() ), "" ) ) );
+    target.append( "/routing=" ).append( connection.isRouting() );
+    target.append( "," ).append( space.environmentSubstitute( connection.getRoutingVariable() ) );
+    target.append( "," ).append( space.environmentSubstitute( connection.getRoutingPolicy() ) );
+    target.append( "/encryption=" ).append( connection.isUsingEncryption() );
+    List<String> manualUrls = connection.getManualUrls();
+    if ( manualUrls != null ) {
+      for ( String manualUrl : manualUrls ) {
+        target.append( "/" ).append( space.environmentSubstitute( manualUrl ) );
+      }
+    }
+    return target.toString();
+  }
+
+  private static NeoConnection loadConnection( IMetaStore metaStore, String connectionName, VariableSpace space ) throws MetaStoreException {
+    NeoConnection connection = loadElement( metaStore, connectionName );
+    if ( connection != null ) {
+      // Copy the variables rather than keeping the execution as the parent
+      //
+      connection.initializeVariablesFrom( null );
+      connection.copyVariablesFrom( space );
+    }
+    return connection;
+  }
+
+  private static NeoConnection loadElement( IMetaStore metaStore, String connectionName ) throws MetaStoreException {
+    MetaStoreFactory<NeoConnection> factory = new MetaStoreFactory<NeoConnection>( NeoConnection.class, metaStore, Defaults.NAMESPACE );
+    return factory.loadElement( connectionName );
+  }
+
+  /**
+   * Forget all connections, for example when the environment changes
+   */
+  public static void clear() {
+    connections.clear();
+  }
+
+  private static class CachedConnection {
+    private NeoConnection template;
+    private long expiryTime;
+    private Map<String, NeoConnection> targets;
+
+    private CachedConnection( NeoConnection template, long expiryTime ) {
+      this.template = template;
+      this.expiryTime = expiryTime;
+      this.targets = Collections.synchronizedMap( new HashMap<>() );
+    }
+
+    private boolean isExpired() {
+      return System.currentTimeMillis() > expiryTime;
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package com.neo4j.kettle.logging.util;
+
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one Neo4j driver (and its connection pool) per logging connection target for the whole JVM.
+ * The target is the server, port and credentials the connection resolves to, so editing a connection
+ * or running it with other variables never reuses a driver which points somewhere else.
+ * When a connection resolves to another target than the last time, the driver of the old target is closed
+ * as soon as its last session is released.
+ * Sessions handed out by this registry are meant to be short-lived: get one, do the work, release it.
+ */
+public class DriverRegistry {
+
+  /**
+   * Driver key --> driver
+   */
+  private static final Map<String, SharedDriver> drivers = new ConcurrentHashMap<>();
+
+  /**
+   * Connection name --> key of the driver it used last
+   */
+  private static final Map<String, String> connectionKeys = new ConcurrentHashMap<>();
+
+  /**
+   * Open session --> the driver it belongs to
+   */
+  private static final Map<Object, SharedDriver> sessionDrivers = new ConcurrentHashMap<>();
+
+  private static final AtomicLong driversCreated = new AtomicLong( 0 );
+  private static final AtomicLong sessionsOpened = new AtomicLong( 0 );
+  private static final AtomicLong sessionsActive = new AtomicLong( 0 );
+
+  /**
+   * Get a new session on the shared driver of the given connection, creating the driver if needed.
+   * Release the session with {@link #release(Session)} when done.
+   *
+   * @param log        The log channel used to create the driver
+   * @param connection The logging connection
+   * @return A new session
+   */
+  public static Session getSession( LogChannelInterface log, NeoConnection connection ) {
+    SharedDriver shared = acquireDriver( log, connection );
+    Session session;
+    try {
+      session = shared.driver.session();
+    } catch ( RuntimeException e ) {
+      shared.release();
+      throw e;
+    }
+    sessionDrivers.put( session, shared );
+    sessionsOpened.incrementAndGet();
+    sessionsActive.incrementAndGet();
+    return session;
+  }
+
+  /**
+   * Get a new asynchronous session on the shared driver of the given connection, creating the driver if needed.
+   * Release the session with {@link #releaseAsync(AsyncSession)} when done.
+   *
+   * @param log        The log channel used to create the driver
+   * @param connection The logging connection
+   * @return A new asynchronous session
+   */
+  public static AsyncSession getAsyncSession( LogChannelInterface log, NeoConnection connection ) {
+    SharedDriver shared = acquireDriver( log, connection );
+    AsyncSession session;
+    try {
+      session = shared.driver.asyncSession();
+    } catch ( RuntimeException e ) {
+      shared.release();
+      throw e;
+    }
+    sessionDrivers.put( session, shared );
+    sessionsOpened.incrementAndGet();
+    sessionsActive.incrementAndGet();
+    return session;
+  }
+
+  private static SharedDriver acquireDriver( LogChannelInterface log, NeoConnection connection ) {
+    String key = getKey( connection );
+    while ( true ) {
+      SharedDriver shared = drivers.computeIfAbsent( key, k -> {
+        driversCreated.incrementAndGet();
+        return new SharedDriver( connection.getDriver( log ) );
+      } );
+
+      // The connection was edited or resolves differently now: the old driver goes once it's no longer used
+      //
+      String previousKey = connectionKeys.put( connection.getName(), key );
+      if ( previousKey != null && !previousKey.equals( key ) ) {
+        SharedDriver previous = drivers.remove( previousKey );
+        if ( previous != null ) {
+          previous.retire();
+        }
+      }
+
+      if ( shared.acquire() ) {
+        return shared;
+      }
+      // Retired in the meantime, get a new one
+      //
+      drivers.remove( key, shared );
+    }
+  }
+
+  /**
+   * @param connection An initialized connection
+   * @return The key of the driver the connection uses: every setting it resolves to, the password as a SHA-256 digest
+   */
+  public static String getKey( NeoConnection connection ) {
+    return ConnectionCache.getTarget( connection );
+  }
+
+  /**
+   * @param text The text to digest
+   * @return The hexadecimal SHA-256 digest of the UTF-8 encoded text
+   */
+  public static String digest( String text ) {
+    try {
+      byte[] hash = MessageDigest.getInstance( "SHA-256" ).digest( text.getBytes( StandardCharsets.UTF_8 ) );
+      StringBuilder hex = new StringBuilder();
+      for ( byte b : hash ) {
+        hex.append( String.format( "%02x", b ) );
+      }
+      return hex.toString();
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( "SHA-256 is not available", e );
+    }
+  }
+
+  /**
+   * Close a session obtained from {@link #getSession(LogChannelInterface, NeoConnection)}
+   *
+   * @param session The session to close, can be null
+   */
+  public static void release( Session session ) {
+    if ( session == null ) {
+      return;
+    }
+    try {
+      session.close();
+    } finally {
+      sessionsActive.decrementAndGet();
+      releaseDriver( session );
+    }
+  }
+
+  /**
+   * Close a session obtained from {@link #getAsyncSession(LogChannelInterface, NeoConnection)} without blocking
+   *
+   * @param session The session to close
+   * @return A stage which completes when the session is closed
+   */
+  public static CompletionStage<Void> releaseAsync( AsyncSession session ) {
+    return session.closeAsync().whenComplete( ( result, e ) -> {
+      sessionsActive.decrementAndGet();
+      releaseDriver( session );
+    } );
+  }
+
+  private static void releaseDriver( Object session ) {
+    SharedDriver shared = sessionDrivers.remove( session );
+    if ( shared != null ) {
+      shared.release();
+    }
+  }
+
+  /**
+   * Close all drivers, used when the environment changes or the JVM shuts down.
+   */
+  public static void closeAll() {
+    connectionKeys.clear();
+    List<String> keys = new ArrayList<>( drivers.keySet() );
+    for ( String key : keys ) {
+      SharedDriver shared = drivers.remove( key );
+      if ( shared != null ) {
+        shared.close();
+      }
+    }
+  }
+
+  /**
+   * @return A one line summary of the driver and session counters
+   */
+  public static String getStatistics() {
+    return "Neo4j logging drivers : open " + drivers.size()
+      + ", created " + driversCreated.get()
+      + ", sessions opened " + sessionsOpened.get()
+      + ", sessions active " + sessionsActive.get();
+  }
+
+  public static int getNrDrivers() {
+    return drivers.size();
+  }
+
+  public static long getDriversCreated() {
+    return driversCreated.get();
+  }
+
+  public static long getSessionsOpened() {
+    return sessionsOpened.get();
+  }
+
+  public static long getSessionsActive() {
+    return sessionsActive.get();
+  }
+
+  /**
+   * A driver with the number of sessions using it.
+   * A retired driver doesn't hand out new sessions and is closed when the last one is released.
+   */
+  private static class SharedDriver {
+    private Driver driver;
+    private int active;
+    private boolean retired;
+    private boolean closed;
+
+    private SharedDriver( Driver driver ) {
+      this.driver = driver;
+    }
+
+    private synchronized boolean acquire() {
+      if ( retired ) {
+        return false;
+      }
+      active++;
+      return true;
+    }
+
+    private void release() {
+      boolean close;
+      synchronized ( this ) {
+        active--;
+        close = retired && active <= 0 && !closed;
+        closed |= close;
+      }
+      if ( close ) {
+        // This can run on the driver's own event loop so don't wait for it
+        //
+        driver.closeAsync();
+      }
+    }
+
+    private void retire() {
+      boolean close;
+      synchronized ( this ) {
+        retired = true;
+        close = active <= 0 && !closed;
+        closed |= close;
+      }
+      if ( close ) {
+        driver.closeAsync();
+      }
+    }
+
+    private void close() {
+      synchronized ( this ) {
+        retired = true;
+        if ( closed ) {
+          return;
+        }
+        closed = true;
+      }
+      driver.close();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package com.neo4j.kettle.logging.util;
+
+import com.neo4j.kettle.logging.Defaults;
+import com.neo4j.kettle.logging.writer.LoggingEvent;
+import com.neo4j.kettle.logging.writer.LoggingWriter;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps totals of repetitive executions in memory per transformation and time bucket.
+ * Finished buckets are written as a single (:ExecutionAggregate) node instead of an (:Execution) per run.
+ * The totals are added to the node so buckets written by several JVMs or in several flushes add up.
+ * Every flush has an ID which is recorded on the buckets it updated, so a flush which is written again
+ * (a retried transaction, a failed group commit or a replay from the spool) is only counted once.
+ */
+public class ExecutionAggregator {
+
+  private static ExecutionAggregator instance;
+
+  private long bucketMs;
+  private Map<String, Aggregate> aggregates;
+  private ScheduledExecutorService scheduler;
+
+  private ExecutionAggregator() {
+    bucketMs = Math.max( 1000, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_AGGREGATE_BUCKET_MS, Defaults.DEFAULT_AGGREGATE_BUCKET_MS ) );
+    aggregates = new ConcurrentHashMap<>();
+    scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+      Thread thread = new Thread( runnable, "Neo4j logging aggregator" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    scheduler.scheduleAtFixedRate( () -> flush( false ), bucketMs, bucketMs, TimeUnit.MILLISECONDS );
+  }
+
+  public static synchronized ExecutionAggregator getInstance() {
+    if ( instance == null ) {
+      instance = new ExecutionAggregator();
+    }
+    return instance;
+  }
+
+  /**
+   * Add a finished execution to the bucket it ended in
+   */
+  public void add( LogChannelInterface log, NeoConnection connection, String type, String name, long durationMs, long errors,
+                   long linesRead, long linesWritten, long linesRejected ) {
+    long bucketStart = System.currentTimeMillis() / bucketMs * bucketMs;
+    String key = connection.getName() + "/" + type + "/" + name + "/" + bucketStart;
+    aggregates.compute( key, ( k, aggregate ) -> {
+      if ( aggregate == null ) {
+        aggregate = new Aggregate( log, connection, type, name, bucketStart );
+      }
+      aggregate.executions++;
+      aggregate.errors += errors;
+      aggregate.totalDurationMs += durationMs;
+      aggregate.maxDurationMs = Math.max( aggregate.maxDurationMs, durationMs );
+      aggregate.linesRead += linesRead;
+      aggregate.linesWritten += linesWritten;
+      aggregate.linesRejected += linesRejected;
+      return aggregate;
+    } );
+  }
+
+  /**
+   * Write the buckets which are finished, one event per connection
+   *
+   * @param all true to write all buckets, for example when the JVM shuts down
+   */
+  public void flush( boolean all ) {
+    long now = System.currentTimeMillis();
+    Map<String, List<Aggregate>> connectionAggregates = new HashMap<>();
+    for ( String key : new ArrayList<>( aggregates.keySet() ) ) {
+      Aggregate aggregate = aggregates.get( key );
+      if ( aggregate != null && ( all || aggregate.bucketStart + bucketMs <= now ) ) {
+        aggregate = aggregates.remove( key );
+        if ( aggregate != null ) {
+          connectionAggregates.computeIfAbsent( aggregate.connection.getName(), name -> new ArrayList<>() ).add( aggregate );
+        }
+      }
+    }
+
+    for ( List<Aggregate> list : connectionAggregates.values() ) {
+      Aggregate first = list.get( 0 );
+      List<Map<String, Object>> rows = new ArrayList<>();
+      for ( Aggregate aggregate : list ) {
+        Map<String, Object> row = new HashMap<>();
+        row.put( "type", aggregate.type );
+        row.put( "name", aggregate.name );
+        row.put( "bucketStart", LoggingCore.toDateTime( new Date( aggregate.bucketStart ) ) );
+        row.put( "executions", aggregate.executions );
+        row.put( "errors", aggregate.errors );
+        row.put( "totalDurationMs", aggregate.totalDurationMs );
+        row.put( "maxDurationMs", aggregate.maxDurationMs );
+        row.put( "linesRead", aggregate.linesRead );
+        row.put( "linesWritten", aggregate.linesWritten );
+        row.put( "linesRejected", aggregate.linesRejected );
+        rows.add( row );
+      }
+
+      Map<String, Object> pars = new HashMap<>();
+      pars.put( "bucketMs", bucketMs );
+      pars.put( "flushId", UUID.randomUUID().toString() );
+
+      StringBuilder cypher = new StringBuilder();
+      cypher.append( "UNWIND $aggregates AS a " );
+      cypher.append( "MERGE (trans:Transformation { name : a.name } ) " );
+      cypher.append( "MERGE (agg:ExecutionAggregate { name : a.name, type : a.type, bucketStart : a.bucketStart } ) " );
+      cypher.append( "ON CREATE SET agg.bucketMs = $bucketMs, agg.executions = 0, agg.errors = 0, agg.totalDurationMs = 0, agg.maxDurationMs = 0" );
+      cypher.append( ", agg.linesRead = 0, agg.linesWritten = 0, agg.linesRejected = 0, agg.flushIds = [] " );
+      cypher.append( "MERGE (agg)-[:AGGREGATE_OF_TRANSFORMATION]->(trans) " );
+      cypher.append( "WITH agg, a " );
+      cypher.append( "WHERE NOT $flushId IN coalesce(agg.flushIds, []) " );
+      cypher.append( "SET " );
+      cypher.append( "  agg.flushIds = coalesce(agg.flushIds, []) + $flushId " );
+      cypher.append( ", agg.executions = agg.executions + a.executions " );
+      cypher.append( ", agg.errors = agg.errors + a.errors " );
+      cypher.append( ", agg.totalDurationMs = agg.totalDurationMs + a.totalDurationMs " );
+      cypher.append( ", agg.maxDurationMs = CASE WHEN a.maxDurationMs > agg.maxDurationMs THEN a.maxDurationMs ELSE agg.maxDurationMs END " );
+      cypher.append( ", agg.linesRead = agg.linesRead + a.linesRead " );
+      cypher.append( ", agg.linesWritten = agg.linesWritten + a.linesWritten " );
+      cypher.append( ", agg.linesRejected = agg.linesRejected + a.linesRejected " );
+
+      LoggingEvent event = new LoggingEvent( "execution aggregates", "aggregates", first.log, first.connection );
+      event.addStatements( cypher.toString(), pars, "aggregates", rows );
+      LoggingWriter.getInstance().submit( event );
+    }
+  }
+
+  /**
+   * Write everything which is still in memory, used when the JVM shuts down
+   */
+  public static void flushAll() {
+    ExecutionAggregator aggregator;
+    synchronized ( ExecutionAggregator.class ) {
+      aggregator = instance;
+    }
+    if ( aggregator != null ) {
+      aggregator.flush( true );
+    }
+  }
+
+  private static class Aggregate {
+    private LogChannelInterface log;
+    private NeoConnection connection;
+    private String type;
+    private String name;
+    private long bucketStart;
+    private long executions;
+    private long errors;
+    private long totalDurationMs;
+    private long maxDurationMs;
+    private long linesRead;
+    private long linesWritten;
+    private long linesRejected;
+
+    private Aggregate( LogChannelInterface log, NeoConnection connection, String type, String name, long bucketStart ) {
+      this.log = log;
+      this.connection = connection;
+      this.type = type;
+      this.name = name;
+      this.bucketStart = bucketStart;
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package com.neo4j.kettle.logging.util;
 
 import com.neo4j.kettle.logging.Defaults;
+import com.neo4j.kettle.logging.writer.LoggingEvent;
+import com.neo4j.kettle.logging.writer.LoggingWriter;
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.swt.graphics.Rectangle;
 import org.neo4j.driver.Driver;
@@ -11,19 +13,26 @@ import org.neo4j.driver.Transaction;
 import org.neo4j.driver.TransactionWork;
 import org.neo4j.driver.Value;
 import org.neo4j.driver.types.Node;
-import org.neo4j.kettle.core.metastore.MetaStoreFactory;
 import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.KettleLogStore;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.logging.LogLevel;
 import org.pentaho.di.core.logging.LoggingHierarchy;
 import org.pentaho.di.core.logging.LoggingObjectInterface;
 import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.trans.Trans;
 import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 
-import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -31,6 +40,11 @@ import java.util.Map;
 
 public class LoggingCore {
 
+  /**
+   * The format of the date strings written by older versions of this plugin, also used to display dates
+   */
+  public static final DateTimeFormatter LEGACY_DATE_FORMAT = DateTimeFormatter.ofPattern( "yyyy/MM/dd'T'HH:mm:ss" );
+
   public static final boolean isEnabled( VariableSpace space ) {
     String connectionName = space.getVariable( Defaults.VARIABLE_NEO4J_LOGGING_CONNECTION );
     return
@@ -43,72 +57,174 @@ public class LoggingCore {
     if ( StringUtils.isEmpty( connectionName ) ) {
       return null;
     }
-    MetaStoreFactory<NeoConnection> factory = new MetaStoreFactory<NeoConnection>( NeoConnection.class, metaStore, Defaults.NAMESPACE );
-    NeoConnection connection = factory.loadElement( connectionName );
+    return ConnectionCache.getConnection( metaStore, connectionName, space );
+  }
+
+  public static final String EXTENSION_DATA_CONNECTION = "NEO4J_LOGGING_CONNECTION";
+
+  /**
+   * Get the logging connection of a transformation, reusing the connection of its parent job or transformation if it logs to the same one.
+   * The connection is remembered in the extension data map of the transformation for its own children.
+   */
+  public static final NeoConnection findConnection( IMetaStore metaStore, Trans trans ) throws MetaStoreException {
+    NeoConnection connection = getParentConnection( trans, trans.getParentJob(), trans.getParentTrans() );
+    if ( connection == null ) {
+      connection = getConnection( metaStore, trans );
+    }
+    if ( connection != null ) {
+      trans.getExtensionDataMap().put( EXTENSION_DATA_CONNECTION, connection );
+    }
+    return connection;
+  }
+
+  /**
+   * Get the logging connection of a job, reusing the connection of its parent job or transformation if it logs to the same one.
+   * The connection is remembered in the extension data map of the job for its own children.
+   */
+  public static final NeoConnection findConnection( IMetaStore metaStore, Job job ) throws MetaStoreException {
+    NeoConnection connection = getParentConnection( job, job.getParentJob(), job.getParentTrans() );
+    if ( connection == null ) {
+      connection = getConnection( metaStore, job );
+    }
     if ( connection != null ) {
-      connection.initializeVariablesFrom( space );
+      job.getExtensionDataMap().put( EXTENSION_DATA_CONNECTION, connection );
     }
     return connection;
   }
 
+  private static NeoConnection getParentConnection( VariableSpace space, Job parentJob, Trans parentTrans ) {
+    NeoConnection connection = null;
+    if ( parentJob != null ) {
+      connection = (NeoConnection) parentJob.getExtensionDataMap().get( EXTENSION_DATA_CONNECTION );
+    } else if ( parentTrans != null ) {
+      connection = (NeoConnection) parentTrans.getExtensionDataMap().get( EXTENSION_DATA_CONNECTION );
+    }
+    if ( connection == null || !connection.getName().equals( space.getVariable( Defaults.VARIABLE_NEO4J_LOGGING_CONNECTION ) ) ) {
+      return null;
+    }
+    return connection;
+  }
 
-  public final static void writeHierarchies( LogChannelInterface log, NeoConnection connection, Transaction transaction,
+  /**
+   * Write the log channel hierarchy: an Execution node for every entry and EXECUTES relationships between them.
+   * Nodes and relationships are sent as UNWIND lists and committed in chunks of
+   * {@link Defaults#VARIABLE_NEO4J_LOGGING_COMMIT_SIZE} entries to keep the Neo4j transactions small.
+   * The chunks of nodes and the chunks of relationships are two parallel phases: the writer can commit them on several sessions.
+   */
+  public final static void writeHierarchies( LogChannelInterface log, NeoConnection connection,
                                              List<LoggingHierarchy> hierarchies, String rootLogChannelId ) {
 
-    try {
-      // First create the Execution nodes
-      //
-      for ( LoggingHierarchy hierarchy : hierarchies ) {
-        LoggingObjectInterface loggingObject = hierarchy.getLoggingObject();
-        LogLevel logLevel = loggingObject.getLogLevel();
-        Map<String, Object> execPars = new HashMap<>();
-        execPars.put( "name", loggingObject.getObjectName() );
-        execPars.put( "type", loggingObject.getObjectType().name() );
-        execPars.put( "copy", loggingObject.getObjectCopy() );
-        execPars.put( "id", loggingObject.getLogChannelId() );
-        execPars.put( "containerId", loggingObject.getContainerObjectId() );
-        execPars.put( "logLevel", logLevel != null ? logLevel.getCode() : null );
-        execPars.put( "root", loggingObject.getLogChannelId().equals( rootLogChannelId ) );
-        execPars.put( "registrationDate", new SimpleDateFormat( "yyyy/MM/dd'T'HH:mm:ss" ).format( loggingObject.getRegistrationDate() ) );
-
-        StringBuilder execCypher = new StringBuilder();
-        execCypher.append( "MERGE (exec:Execution { name : $name, type : $type, id : $id } ) " );
-        execCypher.append( "SET " );
-        execCypher.append( "  exec.containerId = $containerId " );
-        execCypher.append( ", exec.logLevel = $logLevel " );
-        execCypher.append( ", exec.copy = $copy " );
-        execCypher.append( ", exec.registrationDate = $registrationDate " );
-        execCypher.append( ", exec.root = $root " );
-
-        transaction.run( execCypher.toString(), execPars );
-      }
+    int commitSize = Math.max( 1, getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_COMMIT_SIZE, Defaults.DEFAULT_COMMIT_SIZE ) );
+
+    // Collect the Execution nodes and the relationships between them
+    //
+    List<Map<String, Object>> nodes = new ArrayList<>();
+    List<Map<String, Object>> links = new ArrayList<>();
+    for ( LoggingHierarchy hierarchy : hierarchies ) {
+      LoggingObjectInterface loggingObject = hierarchy.getLoggingObject();
 
-      // Now create the relationships between them
+      // Leave out aggregated executions and the steps of executions which were only summarized
       //
-      for ( LoggingHierarchy hierarchy : hierarchies ) {
-        LoggingObjectInterface loggingObject = hierarchy.getLoggingObject();
-        LoggingObjectInterface parentObject = loggingObject.getParent();
-        if ( parentObject != null ) {
-          Map<String, Object> execPars = new HashMap<>();
-          execPars.put( "name", loggingObject.getObjectName() );
-          execPars.put( "type", loggingObject.getObjectType().name() );
-          execPars.put( "id", loggingObject.getLogChannelId() );
-          execPars.put( "parentName", parentObject.getObjectName() );
-          execPars.put( "parentType", parentObject.getObjectType().name() );
-          execPars.put( "parentId", parentObject.getLogChannelId() );
-
-          StringBuilder execCypher = new StringBuilder();
-          execCypher.append( "MATCH (child:Execution { name : $name, type : $type, id : $id } ) " );
-          execCypher.append( "MATCH (parent:Execution { name : $parentName, type : $parentType, id : $parentId } ) " );
-          execCypher.append( "MERGE (parent)-[rel:EXECUTES]->(child) " );
-          transaction.run( execCypher.toString(), execPars );
-        }
+      if ( SamplingPolicy.isLeftOut( loggingObject ) ) {
+        continue;
+      }
+      LogLevel logLevel = loggingObject.getLogLevel();
+      Map<String, Object> execPars = new HashMap<>();
+      execPars.put( "name", loggingObject.getObjectName() );
+      execPars.put( "type", loggingObject.getObjectType().name() );
+      execPars.put( "copy", loggingObject.getObjectCopy() );
+      execPars.put( "id", loggingObject.getLogChannelId() );
+      execPars.put( "containerId", loggingObject.getContainerObjectId() );
+      execPars.put( "logLevel", logLevel != null ? logLevel.getCode() : null );
+      execPars.put( "root", loggingObject.getLogChannelId().equals( rootLogChannelId ) );
+      execPars.put( "registrationDate", toDateTime( loggingObject.getRegistrationDate() ) );
+      nodes.add( execPars );
+
+      LoggingObjectInterface parentObject = loggingObject.getParent();
+      if ( parentObject != null ) {
+        Map<String, Object> linkPars = new HashMap<>();
+        linkPars.put( "name", loggingObject.getObjectName() );
+        linkPars.put( "type", loggingObject.getObjectType().name() );
+        linkPars.put( "id", loggingObject.getLogChannelId() );
+        linkPars.put( "parentName", parentObject.getObjectName() );
+        linkPars.put( "parentType", parentObject.getObjectType().name() );
+        linkPars.put( "parentId", parentObject.getLogChannelId() );
+        links.add( linkPars );
       }
-      transaction.commit();
-    } catch(Exception e) {
-      transaction.rollback();
-      log.logError( "Error logging hierarchies", e );
     }
+
+    for ( LoggingHierarchy hierarchy : hierarchies ) {
+      SamplingPolicy.forget( hierarchy.getLoggingObject().getLogChannelId() );
+    }
+
+    LoggingEvent event = new LoggingEvent( "hierarchies", rootLogChannelId, log, connection );
+
+    // First create the Execution nodes
+    //
+    StringBuilder execCypher = new StringBuilder();
+    execCypher.append( "UNWIND $nodes AS n " );
+    execCypher.append( "MERGE (exec:Execution { id : n.id } ) SET exec.name = n.name, exec.type = n.type " );
+    execCypher.append( "SET " );
+    execCypher.append( "  exec.containerId = n.containerId " );
+    execCypher.append( ", exec.logLevel = n.logLevel " );
+    execCypher.append( ", exec.copy = n.copy " );
+    execCypher.append( ", exec.registrationDate = n.registrationDate " );
+    execCypher.append( ", exec.root = n.root " );
+
+    event.startParallelPhase();
+    for ( int start = 0; start < nodes.size(); start += commitSize ) {
+      int end = Math.min( nodes.size(), start + commitSize );
+      event.startShard( "Logged hierarchy executions " + end + "/" + nodes.size() );
+      event.addStatements( execCypher.toString(), new HashMap<>(), "nodes", nodes.subList( start, end ) );
+    }
+
+    // Now create the relationships between them.
+    // The children of a parent are kept together so parallel chunks don't wait for each other's lock on the parent node.
+    //
+    links.sort( Comparator.comparing( link -> (String) link.get( "parentId" ) ) );
+
+    StringBuilder linkCypher = new StringBuilder();
+    linkCypher.append( "UNWIND $links AS l " );
+    linkCypher.append( "MATCH (child:Execution { name : l.name, type : l.type, id : l.id } ) " );
+    linkCypher.append( "MATCH (parent:Execution { name : l.parentName, type : l.parentType, id : l.parentId } ) " );
+    linkCypher.append( "MERGE (parent)-[rel:EXECUTES]->(child) " );
+
+    event.startParallelPhase();
+    for ( int start = 0; start < links.size(); start += commitSize ) {
+      int end = Math.min( links.size(), start + commitSize );
+      event.startShard( "Logged hierarchy relationships " + end + "/" + links.size() );
+      event.addStatements( linkCypher.toString(), new HashMap<>(), "links", links.subList( start, end ) );
+    }
+
+    LoggingWriter.getInstance().submit( event );
+  }
+
+  /**
+   * Get the logging text of a transformation, job, step copy or job entry.
+   * Uses the text collected by {@link LoggingTextCollector} while the execution ran and falls back to the central log buffer.
+   *
+   * @param trackedLogChannelId The log channel ID of the tracked transformation or job
+   * @param logChannelId        The log channel ID to get the text for
+   * @param includeGeneral      Include the general log channel when falling back to the central log buffer
+   * @return The logging text with its original length
+   */
+  public static LoggingText getLoggingText( String trackedLogChannelId, String logChannelId, boolean includeGeneral ) {
+    LoggingText loggingText = LoggingTextCollector.getInstance().getLoggingText( trackedLogChannelId, logChannelId );
+    if ( loggingText == null ) {
+      loggingText = new LoggingText( KettleLogStore.getAppender().getBuffer( logChannelId, includeGeneral ).toString() );
+    }
+    return loggingText;
+  }
+
+  /**
+   * Get an integer setting from the system properties (kettle.properties)
+   *
+   * @param name         The name of the setting
+   * @param defaultValue The value to use if the setting is not specified or invalid
+   * @return the setting value
+   */
+  public static int getSystemInt( String name, int defaultValue ) {
+    return Const.toInt( System.getProperty( name ), defaultValue );
   }
 
 
@@ -116,7 +232,7 @@ public class LoggingCore {
 
     Session session = null;
     try {
-      session = connection.getSession(log);
+      session = DriverRegistry.getSession( log, connection );
 
       return session.readTransaction( new TransactionWork<T>() {
         @Override public T execute( Transaction tx ) {
@@ -125,9 +241,7 @@ public class LoggingCore {
         }
       } );
     } finally {
-      if ( session != null ) {
-        session.close();
-      }
+      DriverRegistry.release( session );
     }
   }
 
@@ -157,15 +271,7 @@ public class LoggingCore {
     if ( i >= record.size() ) {
       return null;
     }
-    Value value = record.get( i );
-    if ( value == null || value.isNull() ) {
-      return null;
-    }
-    LocalDateTime localDateTime = value.asLocalDateTime();
-    if ( localDateTime == null ) {
-      return null;
-    }
-    return Date.from( localDateTime.atZone( ZoneId.systemDefault() ).toInstant() );
+    return toDate( record.get( i ) );
   }
 
   public static Boolean getBooleanValue( Record record, int i ) {
@@ -204,15 +310,58 @@ public class LoggingCore {
   }
 
   public static Date getDateValue( Node node, String name ) {
-    Value value = node.get( name );
+    return toDate( node.get( name ) );
+  }
+
+  /**
+   * Dates are stored as a native datetime with millisecond precision.
+   *
+   * @param date The date to store
+   * @return The date as a value for a Cypher parameter or null
+   */
+  public static ZonedDateTime toDateTime( Date date ) {
+    if ( date == null ) {
+      return null;
+    }
+    return ZonedDateTime.ofInstant( date.toInstant(), ZoneId.systemDefault() );
+  }
+
+  /**
+   * Convert a stored date back, this handles native datetime values as well as the strings older versions of this plugin wrote.
+   *
+   * @param value The value read from Neo4j
+   * @return The date or null
+   */
+  public static Date toDate( Value value ) {
     if ( value == null || value.isNull() ) {
       return null;
     }
-    LocalDateTime localDateTime = value.asLocalDateTime();
-    if ( localDateTime == null ) {
+    switch ( value.type().name() ) {
+      case "DATE_TIME":
+        return Date.from( value.asZonedDateTime().toInstant() );
+      case "LOCAL_DATE_TIME":
+        return Date.from( value.asLocalDateTime().atZone( ZoneId.systemDefault() ).toInstant() );
+      case "STRING":
+        try {
+          LocalDateTime localDateTime = LocalDateTime.parse( value.asString(), LEGACY_DATE_FORMAT );
+          return Date.from( localDateTime.atZone( ZoneId.systemDefault() ).toInstant() );
+        } catch ( DateTimeParseException e ) {
+          return null;
+        }
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @param date The date to display
+   * @return The date in the format used in the logging dialogs or null
+   */
+  public static String formatDate( Date date ) {
+    if ( date == null ) {
       return null;
     }
-    return Date.from( localDateTime.atZone( ZoneId.systemDefault() ).toInstant() );
+    return LEGACY_DATE_FORMAT.format( date.toInstant().atZone( ZoneId.systemDefault() ) );
   }
 
   public static double calculateRadius( Rectangle bounds ) {
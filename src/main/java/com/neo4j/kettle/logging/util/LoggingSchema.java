@@ -0,0 +1,144 @@
+package com.neo4j.kettle.logging.util;
+
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.exceptions.Neo4jException;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the constraints and indexes the logging graph needs.
+ * This is done once per logging connection target, the first time it's used in this JVM.
+ * The schema version is recorded in a :LoggingSchema node so other JVMs can skip the work,
+ * but only when every statement succeeded or its index or constraint existed already.
+ */
+public class LoggingSchema {
+
+  public static final String SCHEMA_NAME = "kettle-neo4j-logging";
+
+  /**
+   * Increase this version when statements are added to {@link #SCHEMA_STATEMENTS}
+   */
+  public static final long SCHEMA_VERSION = 5L;
+
+  public static final String[] SCHEMA_STATEMENTS = {
+    "CREATE CONSTRAINT ON (n:Transformation) ASSERT n.name IS UNIQUE",
+    "CREATE CONSTRAINT ON (n:Job) ASSERT n.name IS UNIQUE",
+    "DROP INDEX ON :Execution(id)",
+    "CREATE CONSTRAINT ON (n:Execution) ASSERT n.id IS UNIQUE",
+    "CREATE INDEX ON :Execution(name, type)",
+    "CREATE INDEX ON :Execution(status)",
+    "CREATE INDEX ON :Execution(registrationDate)",
+    "CREATE INDEX ON :Execution(executionStart)",
+    "CREATE INDEX ON :Step(transName, name)",
+    "CREATE INDEX ON :JobEntry(jobName, name)",
+    "CREATE INDEX ON :TransformationVersion(name, version)",
+    "CREATE INDEX ON :JobVersion(name, version)",
+    "CREATE INDEX ON :Usage(usage, label)",
+    "CREATE INDEX ON :LogText(id, nr)",
+    "CREATE INDEX ON :Snapshot(id)",
+    "CREATE INDEX ON :ExecutionAggregate(name, type, bucketStart)",
+  };
+
+  private static final Set<String> bootstrappedConnections = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Make sure the logging schema exists in the database of the given connection.
+   * Errors are logged but don't prevent logging from happening.
+   *
+   * @param log        The log channel to report problems on
+   * @param connection The logging connection
+   */
+  public static void bootstrap( LogChannelInterface log, NeoConnection connection ) {
+    String key = DriverRegistry.getKey( connection );
+    if ( !bootstrappedConnections.add( key ) ) {
+      return;
+    }
+
+    Session session = null;
+    try {
+      session = DriverRegistry.getSession( log, connection );
+
+      Long version = session.readTransaction( tx -> {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put( "name", SCHEMA_NAME );
+        Result result = tx.run( "MATCH (schema:LoggingSchema { name : $name } ) RETURN schema.version ", parameters );
+        if ( result.hasNext() ) {
+          Record record = result.next();
+          return LoggingCore.getLongValue( record, 0 );
+        }
+        return null;
+      } );
+      if ( version != null && version >= SCHEMA_VERSION ) {
+        return;
+      }
+
+      log.logBasic( "Creating Neo4j logging indexes and constraints on connection " + connection.getName() );
+
+      // Schema changes can't be combined with data updates so every statement gets its own transaction.
+      // Indexes or constraints which exist already are reported as errors by some Neo4j versions, which is fine.
+      //
+      boolean complete = true;
+      for ( String statement : SCHEMA_STATEMENTS ) {
+        try {
+          session.writeTransaction( tx -> tx.run( statement ).consume() );
+        } catch ( Exception e ) {
+          if ( isExpected( statement, e ) ) {
+            log.logDetailed( "Schema statement '" + statement + "' was not executed : " + e.getMessage() );
+          } else {
+            complete = false;
+            log.logError( "Schema statement '" + statement + "' failed on connection " + connection.getName() + " : " + e.getMessage() );
+          }
+        }
+      }
+
+      // Without the version the schema is created again by the next JVM, once the problem is solved
+      //
+      if ( !complete ) {
+        log.logError( "The Neo4j logging schema on connection " + connection.getName() + " is incomplete, "
+          + "executions can be logged more than once until the failed statements succeed" );
+        return;
+      }
+
+      Map<String, Object> parameters = new HashMap<>();
+      parameters.put( "name", SCHEMA_NAME );
+      parameters.put( "version", SCHEMA_VERSION );
+      session.writeTransaction( tx -> tx.run( "MERGE (schema:LoggingSchema { name : $name } ) SET schema.version = $version ", parameters ).consume() );
+
+    } catch ( Exception e ) {
+      // Try again next time
+      //
+      bootstrappedConnections.remove( key );
+      log.logError( "Error creating Neo4j logging schema on connection " + connection.getName(), e );
+    } finally {
+      DriverRegistry.release( session );
+    }
+  }
+
+  /**
+   * @return true if the statement failed because its index or constraint exists already or, for a drop, doesn't exist
+   */
+  private static boolean isExpected( String statement, Exception e ) {
+    if ( statement.startsWith( "DROP " ) ) {
+      return true;
+    }
+    if ( e instanceof Neo4jException ) {
+      String code = ( (Neo4jException) e ).code();
+      return code != null && code.contains( "AlreadyExists" );
+    }
+    return false;
+  }
+
+  /**
+   * Check the schema again the next time a connection is used, for example after an environment change.
+   */
+  public static void reset() {
+    bootstrappedConnections.clear();
+  }
+}
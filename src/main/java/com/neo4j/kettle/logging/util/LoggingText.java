@@ -0,0 +1,48 @@
+package com.neo4j.kettle.logging.util;
+
+/**
+ * The logging text of an execution together with the length it had before lines were left out of it.
+ */
+public class LoggingText {
+
+  private String text;
+  private long originalLength;
+  private long omittedLength;
+  private boolean capped;
+
+  /**
+   * @param text The complete logging text
+   */
+  public LoggingText( String text ) {
+    this( text, text == null ? 0 : text.length(), 0, false );
+  }
+
+  /**
+   * @param text           The logging text, possibly with an omission marker in place of the lines left out
+   * @param originalLength The number of characters of the text before lines were left out
+   * @param omittedLength  The number of characters left out
+   * @param capped         true if the head and tail sizes were already applied to the text
+   */
+  public LoggingText( String text, long originalLength, long omittedLength, boolean capped ) {
+    this.text = text;
+    this.originalLength = originalLength;
+    this.omittedLength = omittedLength;
+    this.capped = capped;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public long getOriginalLength() {
+    return originalLength;
+  }
+
+  public long getOmittedLength() {
+    return omittedLength;
+  }
+
+  public boolean isCapped() {
+    return capped;
+  }
+}
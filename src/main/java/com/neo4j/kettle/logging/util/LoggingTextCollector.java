@@ -0,0 +1,313 @@
+package com.neo4j.kettle.logging.util;
+
+import com.neo4j.kettle.logging.Defaults;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.KettleLogLayout;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.KettleLoggingEvent;
+import org.pentaho.di.core.logging.KettleLoggingEventListener;
+import org.pentaho.di.core.logging.LogMessageInterface;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.logging.LoggingObjectType;
+import org.pentaho.di.core.logging.LoggingRegistry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the logging text of the transformations and jobs we log while it is being written.
+ * Every line of a tracked execution is kept once, together with the direct child (step copy or job entry) it belongs to.
+ * The text of the execution or of a child is only built when it's asked for.
+ * That's the same text KettleLogStore.getAppender().getBuffer() would give us without having to scan the central
+ * log buffer for every step or job entry at the end of the run.
+ * <p>
+ * The memory used is bounded like the central log buffer: by the maximum number of lines of the log store and,
+ * when the logging text head and tail sizes are set and the omitted part isn't compressed, by those sizes.
+ */
+public class LoggingTextCollector implements KettleLoggingEventListener {
+
+  private static final int MAX_DEPTH = 100;
+
+  private static LoggingTextCollector instance;
+
+  private KettleLogLayout layout;
+
+  /**
+   * Tracked execution log channel ID --> captured lines
+   */
+  private Map<String, Capture> captures;
+
+  private LoggingTextCollector() {
+    layout = new KettleLogLayout( true );
+    captures = new ConcurrentHashMap<>();
+  }
+
+  public static synchronized LoggingTextCollector getInstance() {
+    if ( instance == null ) {
+      instance = new LoggingTextCollector();
+      KettleLogStore.getAppender().addLoggingEventListener( instance );
+    }
+    return instance;
+  }
+
+  /**
+   * Start collecting the logging text of an execution and its direct children.
+   * The lines which are already in the central log buffer are picked up as well.
+   *
+   * @param logChannelId   The log channel ID of the transformation or job
+   * @param includeGeneral true to include the lines of the general log channel, like the job log does
+   */
+  public void track( String logChannelId, boolean includeGeneral ) {
+    Capture capture = new Capture( includeGeneral );
+    if ( captures.putIfAbsent( logChannelId, capture ) != null ) {
+      return;
+    }
+
+    // What was logged before we started to listen.
+    // The capture is registered first so nothing logged in the meantime is lost,
+    // lines which arrive while we read the buffer are kept aside and only added if they're not in the buffer.
+    //
+    int lastLineNr = KettleLogStore.getLastBufferLineNr();
+    List<KettleLoggingEvent> events = KettleLogStore.getAppender().getLogBufferFromTo( logChannelId, includeGeneral, 0, lastLineNr );
+    synchronized ( capture ) {
+      Set<KettleLoggingEvent> seeded = Collections.newSetFromMap( new IdentityHashMap<>() );
+      for ( KettleLoggingEvent event : events ) {
+        seeded.add( event );
+        capture.add( getLine( logChannelId, event ) );
+      }
+      for ( KettleLoggingEvent event : capture.pending ) {
+        if ( !seeded.contains( event ) ) {
+          capture.add( getLine( logChannelId, event ) );
+        }
+      }
+      capture.pending = null;
+    }
+  }
+
+  /**
+   * Get the logging text collected for a tracked execution or one of its direct children.
+   *
+   * @param trackedLogChannelId The log channel ID of the tracked transformation or job
+   * @param logChannelId        The log channel ID of the execution itself, a step copy or a job entry
+   * @return The logging text with its original length or null if the execution isn't tracked
+   */
+  public LoggingText getLoggingText( String trackedLogChannelId, String logChannelId ) {
+    Capture capture = captures.get( trackedLogChannelId );
+    if ( capture == null ) {
+      return null;
+    }
+    String child = trackedLogChannelId.equals( logChannelId ) ? null : logChannelId;
+    synchronized ( capture ) {
+      StringBuilder text = new StringBuilder();
+      appendLines( text, capture.head, capture, child );
+      long omitted;
+      long length;
+      if ( child == null ) {
+        omitted = capture.omitted;
+        length = capture.length;
+      } else {
+        omitted = capture.omittedPerChild.getOrDefault( child, 0L ) + ( capture.includeGeneral ? capture.omittedGeneral : 0L );
+        length = capture.lengthPerChild.getOrDefault( child, 0L ) + ( capture.includeGeneral ? capture.lengthGeneral : 0L );
+      }
+      if ( omitted > 0 ) {
+        text.append( LoggingTextPolicy.getOmissionMarker( (int) Math.min( Integer.MAX_VALUE, omitted ) ) );
+      }
+      appendLines( text, capture.tail, capture, child );
+      return new LoggingText( text.toString(), length, omitted, omitted > 0 && capture.isCapped() );
+    }
+  }
+
+  private void appendLines( StringBuilder text, Iterable<Line> lines, Capture capture, String child ) {
+    for ( Line line : lines ) {
+      if ( child == null || child.equals( line.child ) || ( capture.includeGeneral && line.general ) ) {
+        text.append( line.text ).append( Const.CR );
+      }
+    }
+  }
+
+  /**
+   * Stop collecting the logging text of an execution and free the memory.
+   *
+   * @param logChannelId The log channel ID of the transformation or job
+   */
+  public void release( String logChannelId ) {
+    captures.remove( logChannelId );
+  }
+
+  @Override public void eventAdded( KettleLoggingEvent event ) {
+    if ( captures.isEmpty() ) {
+      return;
+    }
+    String logChannelId = getLogChannelId( event );
+    if ( logChannelId == null ) {
+      return;
+    }
+    LoggingRegistry registry = LoggingRegistry.getInstance();
+
+    // Lines of the general log channel go to every execution which includes them
+    //
+    if ( isGeneral( registry.getLoggingObject( logChannelId ) ) ) {
+      for ( Map.Entry<String, Capture> entry : captures.entrySet() ) {
+        if ( entry.getValue().includeGeneral ) {
+          add( entry.getValue(), entry.getKey(), event );
+        }
+      }
+      return;
+    }
+
+    // Walk up the log channel hierarchy to see if there's a tracked execution
+    //
+    String channelId = logChannelId;
+    for ( int depth = 0; channelId != null && depth < MAX_DEPTH; depth++ ) {
+      Capture capture = captures.get( channelId );
+      if ( capture != null ) {
+        add( capture, channelId, event );
+      }
+      LoggingObjectInterface loggingObject = registry.getLoggingObject( channelId );
+      LoggingObjectInterface parent = loggingObject == null ? null : loggingObject.getParent();
+      channelId = parent == null ? null : parent.getLogChannelId();
+    }
+  }
+
+  private void add( Capture capture, String trackedLogChannelId, KettleLoggingEvent event ) {
+    synchronized ( capture ) {
+      if ( capture.pending != null ) {
+        capture.pending.add( event );
+      } else {
+        capture.add( getLine( trackedLogChannelId, event ) );
+      }
+    }
+  }
+
+  private Line getLine( String trackedLogChannelId, KettleLoggingEvent event ) {
+    String logChannelId = getLogChannelId( event );
+    LoggingRegistry registry = LoggingRegistry.getInstance();
+    LoggingObjectInterface loggingObject = logChannelId == null ? null : registry.getLoggingObject( logChannelId );
+    return new Line( layout.format( event ), getDirectChild( trackedLogChannelId, logChannelId ), isGeneral( loggingObject ) );
+  }
+
+  /**
+   * @return the direct child of the tracked channel on the path from the given channel up to the tracked one,
+   * null if the line belongs to the tracked channel itself
+   */
+  private String getDirectChild( String trackedLogChannelId, String logChannelId ) {
+    LoggingRegistry registry = LoggingRegistry.getInstance();
+    String child = null;
+    String channelId = logChannelId;
+    for ( int depth = 0; channelId != null && depth < MAX_DEPTH; depth++ ) {
+      if ( channelId.equals( trackedLogChannelId ) ) {
+        return child;
+      }
+      LoggingObjectInterface loggingObject = registry.getLoggingObject( channelId );
+      LoggingObjectInterface parent = loggingObject == null ? null : loggingObject.getParent();
+      child = channelId;
+      channelId = parent == null ? null : parent.getLogChannelId();
+    }
+    return null;
+  }
+
+  private boolean isGeneral( LoggingObjectInterface loggingObject ) {
+    return loggingObject != null && LoggingObjectType.GENERAL.equals( loggingObject.getObjectType() );
+  }
+
+  private String getLogChannelId( KettleLoggingEvent event ) {
+    Object message = event.getMessage();
+    if ( message instanceof LogMessageInterface ) {
+      return ( (LogMessageInterface) message ).getLogChannelId();
+    }
+    return null;
+  }
+
+  private static class Line {
+    private String text;
+    private String child;
+    private boolean general;
+
+    private Line( String text, String child, boolean general ) {
+      this.text = text;
+      this.child = child;
+      this.general = general;
+    }
+  }
+
+  /**
+   * The lines of a tracked execution: the head which is always kept and a tail from which the oldest lines are dropped.
+   */
+  private static class Capture {
+    private boolean includeGeneral;
+    private int headSize;
+    private int tailSize;
+    private int maxLines;
+
+    private List<Line> head = new ArrayList<>();
+    private Deque<Line> tail = new ArrayDeque<>();
+    private long headLength;
+    private long tailLength;
+    private long omitted;
+    private Map<String, Long> omittedPerChild = new HashMap<>();
+    private long omittedGeneral;
+
+    /**
+     * The number of characters ever added, dropped lines included
+     */
+    private long length;
+    private Map<String, Long> lengthPerChild = new HashMap<>();
+    private long lengthGeneral;
+
+    /**
+     * The lines which arrive while the capture is seeded from the central log buffer, null once it's seeded
+     */
+    private List<KettleLoggingEvent> pending = new ArrayList<>();
+
+    private Capture( boolean includeGeneral ) {
+      this.includeGeneral = includeGeneral;
+      boolean compress = "Y".equalsIgnoreCase( System.getProperty( Defaults.VARIABLE_NEO4J_LOGGING_TEXT_COMPRESS ) );
+      if ( !compress ) {
+        headSize = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_TEXT_HEAD_KB, Defaults.DEFAULT_TEXT_HEAD_KB ) * 1024;
+        tailSize = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_TEXT_TAIL_KB, Defaults.DEFAULT_TEXT_TAIL_KB ) * 1024;
+      }
+      maxLines = KettleLogStore.getAppender().getMaxNrLines();
+    }
+
+    private boolean isCapped() {
+      return headSize > 0 || tailSize > 0;
+    }
+
+    private void add( Line line ) {
+      int length = line.text.length() + Const.CR.length();
+      this.length += length;
+      if ( line.child != null ) {
+        lengthPerChild.merge( line.child, (long) length, Long::sum );
+      } else if ( line.general ) {
+        lengthGeneral += length;
+      }
+      if ( isCapped() && headLength + length <= headSize && tail.isEmpty() ) {
+        head.add( line );
+        headLength += length;
+        return;
+      }
+      tail.addLast( line );
+      tailLength += length;
+      while ( !tail.isEmpty()
+        && ( ( isCapped() && tailLength > tailSize ) || ( maxLines > 0 && head.size() + tail.size() > maxLines ) ) ) {
+        Line dropped = tail.removeFirst();
+        int droppedLength = dropped.text.length() + Const.CR.length();
+        tailLength -= droppedLength;
+        omitted += droppedLength;
+        if ( dropped.child != null ) {
+          omittedPerChild.merge( dropped.child, (long) droppedLength, Long::sum );
+        } else if ( dropped.general ) {
+          omittedGeneral += droppedLength;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.neo4j.kettle.logging.util;
+
+import com.neo4j.kettle.logging.Defaults;
+import com.neo4j.kettle.logging.writer.LoggingEvent;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+/**
+ * The logging text of an execution is stored in a chain of (:LogText) nodes instead of on the (:Execution) node itself.
+ * This keeps the execution nodes small for the history and path queries, the text is only read when it's shown.
+ *
+ * (:Execution)-[:HAS_LOGGING_TEXT]->(:LogText { id, nr, text, omitted })
+ */
+public class LoggingTextNodes {
+
+  public static final String LABEL_LOG_TEXT = "LogText";
+  public static final String RELATIONSHIP_HAS_LOGGING_TEXT = "HAS_LOGGING_TEXT";
+
+  /**
+   * Move the logging text properties set by {@link LoggingTextPolicy#apply(Map, LoggingText)} out of the given execution parameters
+   * and into log text chunk rows.
+   *
+   * @param chunks      The list of chunk rows to add to
+   * @param executionId The ID of the execution the text belongs to
+   * @param parameters  The execution parameters containing the logging text properties
+   */
+  public static void moveToChunks( List<Map<String, Object>> chunks, String executionId, Map<String, Object> parameters ) {
+    String loggingText = (String) parameters.remove( LoggingTextPolicy.PROPERTY_LOGGING_TEXT );
+    Object omitted = parameters.remove( LoggingTextPolicy.PROPERTY_LOGGING_TEXT_OMITTED );
+    if ( loggingText == null || loggingText.isEmpty() ) {
+      return;
+    }
+
+    int chunkSize = Math.max( 1, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_TEXT_CHUNK_KB, Defaults.DEFAULT_TEXT_CHUNK_KB ) ) * 1024;
+    long nr = 0;
+    for ( int start = 0; start < loggingText.length(); start += chunkSize ) {
+      Map<String, Object> chunk = new HashMap<>();
+      chunk.put( "id", executionId );
+      chunk.put( "nr", nr );
+      chunk.put( "text", loggingText.substring( start, Math.min( loggingText.length(), start + chunkSize ) ) );
+      chunk.put( "omitted", nr == 0 ? omitted : null );
+      chunks.add( chunk );
+      nr++;
+    }
+  }
+
+  /**
+   * Add the statements writing the given chunk rows to the logging event.
+   * The executions need to be written earlier in the same event.
+   *
+   * @param event  The logging event to add to
+   * @param chunks The chunk rows created with {@link #moveToChunks(List, String, Map)}
+   */
+  public static void addStatements( LoggingEvent event, List<Map<String, Object>> chunks ) {
+    if ( chunks.isEmpty() ) {
+      return;
+    }
+    StringBuilder cypher = new StringBuilder();
+    cypher.append( "UNWIND $chunks AS c " );
+    cypher.append( "MATCH (exec:Execution { id : c.id } ) " );
+    cypher.append( "MERGE (text:" + LABEL_LOG_TEXT + " { id : c.id, nr : c.nr } ) " );
+    cypher.append( "SET text.text = c.text, text.omitted = c.omitted " );
+    cypher.append( "MERGE (exec)-[:" + RELATIONSHIP_HAS_LOGGING_TEXT + "]->(text) " );
+
+    event.addParallelStatements( cypher.toString(), new HashMap<>(), "chunks", chunks, "id" );
+  }
+
+  /**
+   * Read the logging text of an execution.
+   * Executions logged by older versions of this plugin still have the text in the loggingText property.
+   *
+   * @param tx          The transaction to read with
+   * @param executionId The ID of the execution
+   * @return The logging text or null if nothing was logged
+   */
+  public static String read( Transaction tx, String executionId ) {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put( "id", executionId );
+
+    StringBuilder cypher = new StringBuilder();
+    cypher.append( "MATCH (exec:Execution { id : $id } ) " );
+    cypher.append( "OPTIONAL MATCH (exec)-[:" + RELATIONSHIP_HAS_LOGGING_TEXT + "]->(text:" + LABEL_LOG_TEXT + ") " );
+    cypher.append( "WITH exec, text ORDER BY text.nr " );
+    cypher.append( "RETURN exec.loggingText, collect(text.text), head(collect(text.omitted)) " );
+
+    Result result = tx.run( cypher.toString(), parameters );
+    if ( !result.hasNext() ) {
+      return null;
+    }
+    Record record = result.next();
+
+    List<String> chunks = record.get( 1 ).asList( Values.ofString() );
+    if ( chunks.isEmpty() ) {
+      return LoggingCore.getStringValue( record, 0 );
+    }
+    StringBuilder loggingText = new StringBuilder();
+    for ( String chunk : chunks ) {
+      loggingText.append( chunk );
+    }
+
+    Value omitted = record.get( 2 );
+    if ( omitted != null && !omitted.isNull() ) {
+      return restoreOmitted( loggingText.toString(), omitted.asByteArray() );
+    }
+    return loggingText.toString();
+  }
+
+  /**
+   * Put the deflated middle part of a capped logging text back in place of the omission marker.
+   */
+  private static String restoreOmitted( String loggingText, byte[] omitted ) {
+    try {
+      String middle = LoggingTextPolicy.inflate( omitted );
+      String marker = LoggingTextPolicy.getOmissionMarker( middle.length() );
+      int index = loggingText.indexOf( marker );
+      if ( index < 0 ) {
+        return loggingText;
+      }
+      return loggingText.substring( 0, index ) + middle + loggingText.substring( index + marker.length() );
+    } catch ( DataFormatException e ) {
+      return loggingText;
+    }
+  }
+}
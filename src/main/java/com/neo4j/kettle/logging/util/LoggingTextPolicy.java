@@ -0,0 +1,113 @@
+package com.neo4j.kettle.logging.util;
+
+import com.neo4j.kettle.logging.Defaults;
+import org.pentaho.di.core.Const;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Decides how much of the logging text of an execution is stored.
+ * Only the head and the tail of a long log are kept as plain text, the part in between is either dropped or
+ * stored deflated. The original length is always recorded.
+ */
+public class LoggingTextPolicy {
+
+  public static final String PROPERTY_LOGGING_TEXT = "loggingText";
+  public static final String PROPERTY_LOGGING_TEXT_LENGTH = "loggingTextLength";
+  public static final String PROPERTY_LOGGING_TEXT_OMITTED = "loggingTextOmitted";
+
+  /**
+   * Apply the logging text storage policy and put the resulting properties in the given parameters map:
+   * loggingText, loggingTextLength and loggingTextOmitted (the deflated middle part or null)
+   *
+   * When the text was already capped while it was collected it's stored as it is, with its original length.
+   *
+   * @param parameters  The parameters map to add the properties to
+   * @param text        The logging text
+   */
+  public static void apply( Map<String, Object> parameters, LoggingText text ) {
+    String loggingText = text == null ? null : text.getText();
+    parameters.put( PROPERTY_LOGGING_TEXT_LENGTH, text == null ? 0L : text.getOriginalLength() );
+    if ( text != null && text.isCapped() ) {
+      parameters.put( PROPERTY_LOGGING_TEXT, loggingText );
+      parameters.put( PROPERTY_LOGGING_TEXT_OMITTED, null );
+      return;
+    }
+
+    int headSize = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_TEXT_HEAD_KB, Defaults.DEFAULT_TEXT_HEAD_KB ) * 1024;
+    int tailSize = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_TEXT_TAIL_KB, Defaults.DEFAULT_TEXT_TAIL_KB ) * 1024;
+    boolean compress = "Y".equalsIgnoreCase( System.getProperty( Defaults.VARIABLE_NEO4J_LOGGING_TEXT_COMPRESS ) );
+
+    int length = loggingText == null ? 0 : loggingText.length();
+
+    if ( loggingText == null || ( headSize <= 0 && tailSize <= 0 ) || length <= headSize + tailSize ) {
+      parameters.put( PROPERTY_LOGGING_TEXT, loggingText );
+      parameters.put( PROPERTY_LOGGING_TEXT_OMITTED, null );
+      return;
+    }
+
+    String head = loggingText.substring( 0, Math.max( 0, headSize ) );
+    String omitted = loggingText.substring( head.length(), length - Math.max( 0, tailSize ) );
+    String tail = loggingText.substring( length - Math.max( 0, tailSize ) );
+
+    parameters.put( PROPERTY_LOGGING_TEXT, head + getOmissionMarker( omitted.length() ) + tail );
+    parameters.put( PROPERTY_LOGGING_TEXT_OMITTED, compress ? deflate( omitted ) : null );
+  }
+
+  /**
+   * @param omittedLength The number of omitted characters
+   * @return The line put in place of the omitted middle part of a logging text
+   */
+  public static String getOmissionMarker( int omittedLength ) {
+    return Const.CR + "... " + omittedLength + " characters omitted ..." + Const.CR;
+  }
+
+  /**
+   * @param text The text to compress
+   * @return The UTF-8 encoded text, deflated
+   */
+  public static byte[] deflate( String text ) {
+    Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+    try {
+      deflater.setInput( text.getBytes( StandardCharsets.UTF_8 ) );
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[ 8192 ];
+      while ( !deflater.finished() ) {
+        int size = deflater.deflate( buffer );
+        out.write( buffer, 0, size );
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * @param data Text compressed with {@link #deflate(String)}
+   * @return The original text
+   */
+  public static String inflate( byte[] data ) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput( data );
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[ 8192 ];
+      while ( !inflater.finished() ) {
+        int size = inflater.inflate( buffer );
+        if ( size == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+          break;
+        }
+        out.write( buffer, 0, size );
+      }
+      return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -4,9 +4,38 @@ import org.pentaho.di.job.Job;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.metastore.api.IMetaStore;
 
+/**
+ * Finds the metastore of an execution, looking up the chain of parent jobs and transformations if needed.
+ * The metastore found is remembered in the extension data map of the execution so that nested executions
+ * only have to look at their direct parent.
+ */
 public class MetaStoreUtil {
 
+  public static final String EXTENSION_DATA_METASTORE = "NEO4J_LOGGING_METASTORE";
+
   public static final IMetaStore findMetaStore( Job  job) {
+    IMetaStore metaStore = (IMetaStore) job.getExtensionDataMap().get( EXTENSION_DATA_METASTORE );
+    if (metaStore==null) {
+      metaStore = lookupMetaStore( job );
+      if (metaStore!=null) {
+        job.getExtensionDataMap().put( EXTENSION_DATA_METASTORE, metaStore );
+      }
+    }
+    return metaStore;
+  }
+
+  public static final IMetaStore findMetaStore( Trans trans) {
+    IMetaStore metaStore = (IMetaStore) trans.getExtensionDataMap().get( EXTENSION_DATA_METASTORE );
+    if (metaStore==null) {
+      metaStore = lookupMetaStore( trans );
+      if (metaStore!=null) {
+        trans.getExtensionDataMap().put( EXTENSION_DATA_METASTORE, metaStore );
+      }
+    }
+    return metaStore;
+  }
+
+  private static IMetaStore lookupMetaStore( Job  job) {
     if (job.getJobMeta().getMetaStore()!=null) {
       return job.getJobMeta().getMetaStore();
     }
@@ -26,7 +55,7 @@ public class MetaStoreUtil {
     return null;
   }
 
-  public static final IMetaStore findMetaStore( Trans trans) {
+  private static IMetaStore lookupMetaStore( Trans trans) {
     if (trans.getMetaStore()!=null) {
       return trans.getMetaStore();
     }
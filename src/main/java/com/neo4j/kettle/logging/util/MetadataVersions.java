@@ -0,0 +1,116 @@
+package com.neo4j.kettle.logging.util;
+
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.job.JobHopMeta;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entry.JobEntryCopy;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fingerprints of transformation and job metadata.
+ * We keep track of the versions which were written to a logging database in this JVM so that the metadata
+ * of a transformation or job which runs over and over again is only written once.
+ * The database is identified like the drivers are, by the server and credentials the connection resolves to.
+ */
+public class MetadataVersions {
+
+  private static final Set<String> persistedVersions = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Calculate a fingerprint of everything we log about a transformation: steps, plugin IDs, copies, hops, ...
+   *
+   * @param transMeta The transformation metadata
+   * @return The fingerprint as a hexadecimal string
+   */
+  public static String getFingerprint( TransMeta transMeta ) {
+    StringBuilder content = new StringBuilder();
+    append( content, transMeta.getName(), transMeta.getDescription(), transMeta.getFilename() );
+    for ( StepMeta stepMeta : transMeta.getSteps() ) {
+      append( content, "STEP", stepMeta.getName(), stepMeta.getDescription(), stepMeta.getStepID(), stepMeta.getCopies(),
+        stepMeta.getLocation().x, stepMeta.getLocation().y, stepMeta.isDrawn() );
+    }
+    for ( int i = 0; i < transMeta.nrTransHops(); i++ ) {
+      TransHopMeta hopMeta = transMeta.getTransHop( i );
+      append( content, "HOP", hopMeta.getFromStep().getName(), hopMeta.getToStep().getName() );
+    }
+    return hash( content.toString() );
+  }
+
+  /**
+   * Calculate a fingerprint of everything we log about a job: job entries, plugin IDs, hops, ...
+   *
+   * @param jobMeta The job metadata
+   * @return The fingerprint as a hexadecimal string
+   */
+  public static String getFingerprint( JobMeta jobMeta ) {
+    StringBuilder content = new StringBuilder();
+    append( content, jobMeta.getName(), jobMeta.getDescription(), jobMeta.getFilename() );
+    for ( JobEntryCopy copy : jobMeta.getJobCopies() ) {
+      append( content, "ENTRY", copy.getName(), copy.getDescription(), copy.getEntry().getPluginId(), copy.isEvaluation(),
+        copy.isLaunchingInParallel(), copy.isStart(), copy.isUnconditional(), copy.getNr(), copy.getLocation().x,
+        copy.getLocation().y, copy.isDrawn() );
+    }
+    for ( int i = 0; i < jobMeta.nrJobHops(); i++ ) {
+      JobHopMeta hopMeta = jobMeta.getJobHop( i );
+      append( content, "HOP", hopMeta.getFromEntry().getName(), hopMeta.getToEntry().getName() );
+    }
+    return hash( content.toString() );
+  }
+
+  /**
+   * Register a metadata version as written to the database of the given connection.
+   *
+   * @param connection  The initialized logging connection
+   * @param fingerprint The metadata fingerprint
+   * @return true if the version is new and needs to be written, false if it was written before
+   */
+  public static boolean register( NeoConnection connection, String fingerprint ) {
+    return persistedVersions.add( DriverRegistry.getKey( connection ) + "/" + fingerprint );
+  }
+
+  /**
+   * Forget about a version, for example because writing it failed.
+   *
+   * @param connection  The initialized logging connection
+   * @param fingerprint The metadata fingerprint
+   */
+  public static void unregister( NeoConnection connection, String fingerprint ) {
+    persistedVersions.remove( DriverRegistry.getKey( connection ) + "/" + fingerprint );
+  }
+
+  /**
+   * Forget about all versions, used when the logging environment changes.
+   */
+  public static void clear() {
+    persistedVersions.clear();
+  }
+
+  private static void append( StringBuilder content, Object... values ) {
+    for ( Object value : values ) {
+      content.append( value ).append( '\u0000' );
+    }
+    content.append( '\n' );
+  }
+
+  private static String hash( String content ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+      byte[] bytes = digest.digest( content.getBytes( StandardCharsets.UTF_8 ) );
+      StringBuilder hex = new StringBuilder();
+      for ( byte b : bytes ) {
+        hex.append( String.format( "%02x", b ) );
+      }
+      return hex.toString();
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new RuntimeException( "Unable to calculate metadata fingerprint", e );
+    }
+  }
+}
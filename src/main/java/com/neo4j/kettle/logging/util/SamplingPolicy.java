@@ -0,0 +1,146 @@
+package com.neo4j.kettle.logging.util;
+
+import com.neo4j.kettle.logging.Defaults;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.logging.LoggingRegistry;
+import org.pentaho.di.trans.Trans;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which sub-transformation executions are logged in full detail.
+ * Transformations executed over and over by a job or a Transformation Executor step only get a summary row,
+ * unless they failed, ran longer than a threshold or were picked as 1 in N sample.
+ * In aggregation mode these executions are only counted in an (:ExecutionAggregate) per time bucket.
+ * Top level transformations are always logged in full.
+ * The summarized and aggregated executions are remembered until the hierarchy of their root is written.
+ * When the root is never logged they are forgotten once Kettle drops them from the logging registry.
+ */
+public class SamplingPolicy {
+
+  private static final int MIN_PURGE_SIZE = 1000;
+
+  private static final Map<String, AtomicLong> executionCounters = new ConcurrentHashMap<>();
+
+  private static final Set<String> summarizedExecutions = ConcurrentHashMap.newKeySet();
+
+  private static final Set<String> aggregatedExecutions = ConcurrentHashMap.newKeySet();
+
+  private static final AtomicLong purgeSize = new AtomicLong( MIN_PURGE_SIZE );
+
+  /**
+   * @param trans The transformation
+   * @return true if the level of detail of this execution is only decided when it ends
+   */
+  public static boolean isSampling( Trans trans ) {
+    if ( trans.getParentJob() == null && trans.getParentTrans() == null ) {
+      return false;
+    }
+    return getSampleRate( trans ) != 1;
+  }
+
+  /**
+   * Decide at the end of a sampled execution whether or not it's logged in full detail
+   *
+   * @param trans      The finished transformation
+   * @param durationMs The duration of the execution
+   * @return true if everything should be logged, false if a summary is enough
+   */
+  public static boolean isFullDetail( Trans trans, long durationMs ) {
+    if ( trans.getErrors() > 0 || trans.getResult().getNrErrors() > 0 ) {
+      return true;
+    }
+    long minDurationMs = Const.toLong( trans.environmentSubstitute( trans.getVariable( Defaults.VARIABLE_NEO4J_LOGGING_SAMPLE_MIN_DURATION_MS ) ), 0L );
+    if ( minDurationMs > 0 && durationMs >= minDurationMs ) {
+      return true;
+    }
+    int sampleRate = getSampleRate( trans );
+    if ( sampleRate <= 0 ) {
+      return false;
+    }
+    AtomicLong counter = executionCounters.computeIfAbsent( trans.getTransMeta().getName(), name -> new AtomicLong( 0 ) );
+    return counter.getAndIncrement() % sampleRate == 0;
+  }
+
+  /**
+   * @param trans The transformation
+   * @return true if executions which aren't logged in full detail are only added to an aggregate
+   */
+  public static boolean isAggregating( Trans trans ) {
+    return "Y".equalsIgnoreCase( trans.environmentSubstitute( trans.getVariable( Defaults.VARIABLE_NEO4J_LOGGING_AGGREGATE ) ) );
+  }
+
+  private static int getSampleRate( Trans trans ) {
+    return Const.toInt( trans.environmentSubstitute( trans.getVariable( Defaults.VARIABLE_NEO4J_LOGGING_SAMPLE_RATE ) ), 1 );
+  }
+
+  /**
+   * Remember that only a summary was logged for an execution so its steps are left out of the log channel hierarchy
+   *
+   * @param logChannelId The log channel ID of the execution
+   */
+  public static void summarized( String logChannelId ) {
+    summarizedExecutions.add( logChannelId );
+    purgeIfNeeded();
+  }
+
+  /**
+   * Remember that an execution was only added to an aggregate so it's left out of the log channel hierarchy together with its steps
+   *
+   * @param logChannelId The log channel ID of the execution
+   */
+  public static void aggregated( String logChannelId ) {
+    aggregatedExecutions.add( logChannelId );
+    purgeIfNeeded();
+  }
+
+  /**
+   * @param loggingObject An entry of the log channel hierarchy
+   * @return true if the entry is an aggregated execution or part of an execution which was only summarized or aggregated
+   */
+  public static boolean isLeftOut( LoggingObjectInterface loggingObject ) {
+    if ( summarizedExecutions.isEmpty() && aggregatedExecutions.isEmpty() ) {
+      return false;
+    }
+    if ( aggregatedExecutions.contains( loggingObject.getLogChannelId() ) ) {
+      return true;
+    }
+    LoggingObjectInterface parent = loggingObject.getParent();
+    while ( parent != null ) {
+      if ( summarizedExecutions.contains( parent.getLogChannelId() ) || aggregatedExecutions.contains( parent.getLogChannelId() ) ) {
+        return true;
+      }
+      parent = parent.getParent();
+    }
+    return false;
+  }
+
+  /**
+   * Forget about a summarized or aggregated execution once its hierarchy was written
+   *
+   * @param logChannelId The log channel ID of the execution
+   */
+  public static void forget( String logChannelId ) {
+    summarizedExecutions.remove( logChannelId );
+    aggregatedExecutions.remove( logChannelId );
+  }
+
+  /**
+   * Drop the executions which are no longer in the logging registry: no hierarchy will ever contain them.
+   * The sets are only scanned when they have doubled in size since the last time.
+   */
+  private static void purgeIfNeeded() {
+    long threshold = purgeSize.get();
+    if ( summarizedExecutions.size() + aggregatedExecutions.size() < threshold || !purgeSize.compareAndSet( threshold, Long.MAX_VALUE ) ) {
+      return;
+    }
+    LoggingRegistry registry = LoggingRegistry.getInstance();
+    summarizedExecutions.removeIf( logChannelId -> registry.getLoggingObject( logChannelId ) == null );
+    aggregatedExecutions.removeIf( logChannelId -> registry.getLoggingObject( logChannelId ) == null );
+    purgeSize.set( Math.max( MIN_PURGE_SIZE, 2L * ( summarizedExecutions.size() + aggregatedExecutions.size() ) ) );
+  }
+}
@@ -0,0 +1,115 @@
+package com.neo4j.kettle.logging.writer;
+
+import org.neo4j.kettle.shared.NeoConnection;
+
+/**
+ * Keeps track of the health of a logging connection.
+ * After a number of consecutive failed or slow writes the breaker opens: events are spooled or dropped
+ * without any network attempt until a background probe finds the database available again.
+ */
+public class CircuitBreaker {
+
+  private String connectionName;
+  private int failureThreshold;
+  private long slowCallMs;
+  private NeoConnection connection;
+
+  private int consecutiveFailures;
+  private boolean open;
+  private long openedTime;
+  private long timesOpened;
+
+  /**
+   * @param connectionName   The name of the logging connection
+   * @param failureThreshold The number of consecutive failed or slow calls which opens the breaker, 0 never opens it
+   * @param slowCallMs       Calls taking longer than this are counted as failures
+   */
+  public CircuitBreaker( String connectionName, int failureThreshold, long slowCallMs ) {
+    this.connectionName = connectionName;
+    this.failureThreshold = failureThreshold;
+    this.slowCallMs = slowCallMs;
+  }
+
+  /**
+   * @param durationMs The time it took to write to the database
+   * @return true if this call opened the breaker
+   */
+  public synchronized boolean recordSuccess( long durationMs ) {
+    if ( slowCallMs > 0 && durationMs > slowCallMs ) {
+      return recordFailure();
+    }
+    consecutiveFailures = 0;
+    return false;
+  }
+
+  /**
+   * Record a failure to reach the database
+   *
+   * @return true if this call opened the breaker
+   */
+  public synchronized boolean recordFailure() {
+    consecutiveFailures++;
+    if ( !open && failureThreshold > 0 && consecutiveFailures >= failureThreshold ) {
+      open = true;
+      openedTime = System.currentTimeMillis();
+      timesOpened++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Close the breaker after a successful probe
+   */
+  public synchronized void close() {
+    open = false;
+    consecutiveFailures = 0;
+  }
+
+  public synchronized boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Gets connectionName
+   *
+   * @return value of connectionName
+   */
+  public String getConnectionName() {
+    return connectionName;
+  }
+
+  /**
+   * Gets connection
+   *
+   * @return value of connection, the last connection used with this name
+   */
+  public NeoConnection getConnection() {
+    return connection;
+  }
+
+  /**
+   * @param connection The connection to set
+   */
+  public void setConnection( NeoConnection connection ) {
+    this.connection = connection;
+  }
+
+  /**
+   * Gets openedTime
+   *
+   * @return value of openedTime, the time the breaker was last opened
+   */
+  public synchronized long getOpenedTime() {
+    return openedTime;
+  }
+
+  /**
+   * Gets timesOpened
+   *
+   * @return value of timesOpened
+   */
+  public synchronized long getTimesOpened() {
+    return timesOpened;
+  }
+}
@@ -0,0 +1,309 @@
+package com.neo4j.kettle.logging.writer;
+
+import com.neo4j.kettle.logging.Defaults;
+import com.neo4j.kettle.logging.util.LoggingCore;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A unit of logging work executed by the {@link LoggingWriter}.
+ * The statements are executed in a single write transaction, in the order they were added.
+ * A parallel phase ends that transaction: statements added after the phase go into a new transaction
+ * which is only written once all the shards of the phase are committed.
+ * All the information is captured when the event is created so that the Kettle thread doesn't have to wait for Neo4j.
+ * Events are serializable so they can be kept in a {@link LoggingSpool} while the logging database is unavailable.
+ * Large lists of independent rows can be split into shards which the writer commits in parallel,
+ * see {@link #startParallelPhase()}, {@link #startShard(String)} and {@link #addParallelStatements(String, Map, String, List, String)}.
+ */
+public class LoggingEvent implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private String description;
+  private String executionId;
+  private String connectionName;
+  private transient LogChannelInterface log;
+  private transient NeoConnection connection;
+  private List<LoggingTransaction> transactions;
+  private long creationTime;
+  private transient Runnable failureHandler;
+  private int lastPhase;
+  private int currentPhase;
+
+  /**
+   * @param description A description of the event for error reporting
+   * @param executionId The log channel ID of the execution this event belongs to, events of an execution are written in order
+   * @param log         The log channel to report on
+   * @param connection  The logging connection to write to
+   */
+  public LoggingEvent( String description, String executionId, LogChannelInterface log, NeoConnection connection ) {
+    this.description = description;
+    this.executionId = executionId;
+    this.log = log;
+    this.connection = connection;
+    this.connectionName = connection.getName();
+    this.transactions = new ArrayList<>();
+    this.creationTime = System.currentTimeMillis();
+  }
+
+  /**
+   * The shards started after this call are written in parallel with each other, once all earlier transactions are committed.
+   * Later transactions wait for all the shards of the phase.
+   */
+  public void startParallelPhase() {
+    currentPhase = ++lastPhase;
+  }
+
+  /**
+   * Statements added after this call are committed in a new transaction which is part of the current parallel phase.
+   *
+   * @param progressMessage The message to log once the shard is committed, can be null
+   */
+  public void startShard( String progressMessage ) {
+    if ( currentPhase == 0 ) {
+      startParallelPhase();
+    }
+    transactions.add( new LoggingTransaction( progressMessage, currentPhase ) );
+  }
+
+  public void addStatement( String cypher, Map<String, Object> parameters ) {
+    if ( transactions.isEmpty() || transactions.get( transactions.size() - 1 ).getPhase() != currentPhase ) {
+      transactions.add( new LoggingTransaction( null, currentPhase ) );
+    }
+    transactions.get( transactions.size() - 1 ).getStatements().add( new LoggingStatement( cypher, parameters ) );
+  }
+
+  /**
+   * Add a statement which UNWINDs a list parameter. Large lists are split into chunks of at most
+   * {@link Defaults#VARIABLE_NEO4J_LOGGING_BATCH_SIZE} rows, one statement per chunk.
+   *
+   * @param cypher        The cypher to execute for every chunk
+   * @param parameters    The parameters which are the same for every chunk
+   * @param listParameter The name of the list parameter
+   * @param rows          The rows to pass in the list parameter
+   */
+  public void addStatements( String cypher, Map<String, Object> parameters, String listParameter, List<Map<String, Object>> rows ) {
+    int batchSize = Math.max( 1, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_BATCH_SIZE, Defaults.DEFAULT_BATCH_SIZE ) );
+    for ( int start = 0; start < rows.size(); start += batchSize ) {
+      Map<String, Object> chunkParameters = new HashMap<>( parameters );
+      chunkParameters.put( listParameter, new ArrayList<>( rows.subList( start, Math.min( rows.size(), start + batchSize ) ) ) );
+      addStatement( cypher, chunkParameters );
+    }
+  }
+
+  /**
+   * Add a statement which UNWINDs a list parameter, writing the rows in parallel shards if there are more than
+   * {@link Defaults#VARIABLE_NEO4J_LOGGING_BATCH_SIZE} and {@link Defaults#VARIABLE_NEO4J_LOGGING_WRITER_PARALLELISM} is more than 1.
+   * The rows must not depend on each other. Rows with the same shard key value end up in the same shard
+   * so the nodes they MERGE are never created by two transactions at the same time.
+   *
+   * @param cypher        The cypher to execute for every chunk
+   * @param parameters    The parameters which are the same for every chunk
+   * @param listParameter The name of the list parameter
+   * @param rows          The rows to pass in the list parameter
+   * @param shardKey      The key of the row value which decides the shard, null to spread the rows evenly
+   */
+  public void addParallelStatements( String cypher, Map<String, Object> parameters, String listParameter, List<Map<String, Object>> rows, String shardKey ) {
+    int parallelism = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_WRITER_PARALLELISM, Defaults.DEFAULT_WRITER_PARALLELISM );
+    int batchSize = Math.max( 1, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_BATCH_SIZE, Defaults.DEFAULT_BATCH_SIZE ) );
+    if ( parallelism <= 1 || rows.size() <= batchSize ) {
+      addStatements( cypher, parameters, listParameter, rows );
+      return;
+    }
+
+    List<List<Map<String, Object>>> shards = new ArrayList<>();
+    for ( int i = 0; i < parallelism; i++ ) {
+      shards.add( new ArrayList<>() );
+    }
+    for ( int i = 0; i < rows.size(); i++ ) {
+      Map<String, Object> row = rows.get( i );
+      int shard = shardKey == null ? i % parallelism : Math.floorMod( Objects.hashCode( row.get( shardKey ) ), parallelism );
+      shards.get( shard ).add( row );
+    }
+
+    startParallelPhase();
+    for ( List<Map<String, Object>> shard : shards ) {
+      if ( !shard.isEmpty() ) {
+        startShard( null );
+        addStatements( cypher, parameters, listParameter, shard );
+      }
+    }
+    currentPhase = 0;
+  }
+
+  /**
+   * @return The transactions with statements grouped per phase: a transaction written on its own or all the shards of a parallel phase
+   */
+  public List<List<LoggingTransaction>> getPhases() {
+    List<List<LoggingTransaction>> phases = new ArrayList<>();
+    List<LoggingTransaction> phase = null;
+    for ( LoggingTransaction transaction : transactions ) {
+      if ( transaction.getStatements().isEmpty() ) {
+        continue;
+      }
+      if ( phase == null || transaction.getPhase() == 0 || transaction.getPhase() != phase.get( 0 ).getPhase() ) {
+        phase = new ArrayList<>();
+        phases.add( phase );
+      }
+      phase.add( transaction );
+    }
+    return phases;
+  }
+
+  public boolean isEmpty() {
+    for ( LoggingTransaction transaction : transactions ) {
+      if ( !transaction.getStatements().isEmpty() ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if all statements of this event are committed in a single transaction, these events can be committed together with others
+   */
+  public boolean isSingleTransaction() {
+    int count = 0;
+    for ( LoggingTransaction transaction : transactions ) {
+      if ( !transaction.getStatements().isEmpty() ) {
+        count++;
+      }
+    }
+    return count <= 1;
+  }
+
+  /**
+   * Gets description
+   *
+   * @return value of description
+   */
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * @param description The description to set
+   */
+  public void setDescription( String description ) {
+    this.description = description;
+  }
+
+  /**
+   * Gets executionId
+   *
+   * @return value of executionId
+   */
+  public String getExecutionId() {
+    return executionId;
+  }
+
+  /**
+   * @param executionId The executionId to set
+   */
+  public void setExecutionId( String executionId ) {
+    this.executionId = executionId;
+  }
+
+  /**
+   * Gets log
+   *
+   * @return value of log
+   */
+  public LogChannelInterface getLog() {
+    return log;
+  }
+
+  /**
+   * @param log The log to set
+   */
+  public void setLog( LogChannelInterface log ) {
+    this.log = log;
+  }
+
+  /**
+   * Gets connectionName
+   *
+   * @return value of connectionName
+   */
+  public String getConnectionName() {
+    return connectionName;
+  }
+
+  /**
+   * @param connectionName The connectionName to set
+   */
+  public void setConnectionName( String connectionName ) {
+    this.connectionName = connectionName;
+  }
+
+  /**
+   * Gets connection
+   *
+   * @return value of connection
+   */
+  public NeoConnection getConnection() {
+    return connection;
+  }
+
+  /**
+   * @param connection The connection to set
+   */
+  public void setConnection( NeoConnection connection ) {
+    this.connection = connection;
+  }
+
+  /**
+   * Gets transactions
+   *
+   * @return value of transactions
+   */
+  public List<LoggingTransaction> getTransactions() {
+    return transactions;
+  }
+
+  /**
+   * @param transactions The transactions to set
+   */
+  public void setTransactions( List<LoggingTransaction> transactions ) {
+    this.transactions = transactions;
+  }
+
+  /**
+   * Gets creationTime
+   *
+   * @return value of creationTime
+   */
+  public long getCreationTime() {
+    return creationTime;
+  }
+
+  /**
+   * @param creationTime The creationTime to set
+   */
+  public void setCreationTime( long creationTime ) {
+    this.creationTime = creationTime;
+  }
+
+  /**
+   * Gets failureHandler
+   *
+   * @return value of failureHandler, called when the event couldn't be written
+   */
+  public Runnable getFailureHandler() {
+    return failureHandler;
+  }
+
+  /**
+   * @param failureHandler The failureHandler to set
+   */
+  public void setFailureHandler( Runnable failureHandler ) {
+    this.failureHandler = failureHandler;
+  }
+}
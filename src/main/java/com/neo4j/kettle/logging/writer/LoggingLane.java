@@ -0,0 +1,89 @@
+package com.neo4j.kettle.logging.writer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An ordered lane of logging events with its own writer thread.
+ * All events of an execution end up in the same lane so they are written in the order they were submitted.
+ * Events of different executions are spread over the lanes and written in parallel.
+ */
+public class LoggingLane {
+
+  private int index;
+  private BlockingQueue<LoggingEvent> queue;
+  private Thread thread;
+  private int groupSize;
+
+  public LoggingLane( int index, int capacity ) {
+    this.index = index;
+    this.queue = new LinkedBlockingQueue<>( capacity );
+  }
+
+  /**
+   * Adapt the number of events committed together to the latency of the last group commit.
+   * The group size is halved when a commit is slower than the target and grows gradually while full groups commit fast enough.
+   *
+   * @param committed  The number of events in the last group
+   * @param durationMs The time the last group commit took
+   * @param targetMs   The target commit latency
+   * @param maxSize    The maximum group size
+   */
+  public void adaptGroupSize( int committed, long durationMs, long targetMs, int maxSize ) {
+    if ( targetMs > 0 && durationMs > targetMs ) {
+      groupSize = Math.max( 1, groupSize / 2 );
+    } else if ( committed >= groupSize ) {
+      groupSize = Math.min( maxSize, groupSize + Math.max( 1, groupSize / 4 ) );
+    }
+  }
+
+  /**
+   * Gets index
+   *
+   * @return value of index
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Gets queue
+   *
+   * @return value of queue
+   */
+  public BlockingQueue<LoggingEvent> getQueue() {
+    return queue;
+  }
+
+  /**
+   * Gets thread
+   *
+   * @return value of thread
+   */
+  public Thread getThread() {
+    return thread;
+  }
+
+  /**
+   * @param thread The thread to set
+   */
+  public void setThread( Thread thread ) {
+    this.thread = thread;
+  }
+
+  /**
+   * Gets groupSize
+   *
+   * @return value of groupSize, the maximum number of events the next group commit gathers
+   */
+  public int getGroupSize() {
+    return groupSize;
+  }
+
+  /**
+   * @param groupSize The groupSize to set
+   */
+  public void setGroupSize( int groupSize ) {
+    this.groupSize = groupSize;
+  }
+}
@@ -0,0 +1,346 @@
+package com.neo4j.kettle.logging.writer;
+
+import org.neo4j.driver.exceptions.ServiceUnavailableException;
+import org.neo4j.driver.exceptions.SessionExpiredException;
+import org.neo4j.driver.exceptions.TransientException;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * A local append-only file holding the logging events of one connection which couldn't be written to Neo4j.
+ * The events are replayed in the order they were appended so the events of an execution stay in order.
+ * <p>
+ * File layout: the read offset (long) followed by records of a length (int) and a serialized {@link LoggingEvent}.
+ * The file is truncated once all records are replayed.
+ * Appended records and the read offset are synced to disk so the spool survives a crash.
+ * A record which was only partly written when the JVM died is discarded.
+ * <p>
+ * A spool file is locked by the process using it. When another Kettle process of the same user holds the lock
+ * the next free numbered file is used: connection.1.spool, connection.2.spool, ...
+ * Events left behind in such a file by a process which died are replayed by the next process which gets its lock.
+ */
+public class LoggingSpool {
+
+  private static final int HEADER_SIZE = 8;
+
+  private static final int MAX_SLOTS = 100;
+
+  private String connectionName;
+  private String folder;
+  private String baseName;
+  private File file;
+  private long maxSize;
+  private LogChannelInterface log;
+  private NeoConnection connection;
+
+  private RandomAccessFile raf;
+  private FileLock lock;
+  private long readOffset;
+  private long nextOffset;
+
+  /**
+   * @param connectionName The name of the logging connection
+   * @param folder         The folder to keep the spool file in
+   * @param maxSize        The maximum size of the spool file in bytes
+   * @param log            The log channel to report problems on
+   */
+  public LoggingSpool( String connectionName, String folder, long maxSize, LogChannelInterface log ) {
+    this.connectionName = connectionName;
+    this.folder = folder;
+    this.baseName = connectionName.replaceAll( "[^A-Za-z0-9_\\-]", "_" );
+    this.file = new File( folder, baseName + ".spool" );
+    this.maxSize = maxSize;
+    this.log = log;
+  }
+
+  /**
+   * An event can be spooled and retried later if the database couldn't be reached.
+   * Other errors would fail again on replay.
+   *
+   * @param e The exception thrown while writing an event
+   * @return true if the event should be retried later
+   */
+  public static boolean isRetryable( Throwable e ) {
+    while ( e != null ) {
+      if ( e instanceof ServiceUnavailableException || e instanceof SessionExpiredException || e instanceof TransientException ) {
+        return true;
+      }
+      e = e.getCause();
+    }
+    return false;
+  }
+
+  private void open() throws IOException {
+    if ( raf != null ) {
+      return;
+    }
+    lockFile();
+    if ( raf.length() < HEADER_SIZE ) {
+      raf.setLength( 0 );
+      raf.writeLong( HEADER_SIZE );
+    }
+    raf.seek( 0 );
+    readOffset = Math.max( HEADER_SIZE, Math.min( raf.readLong(), raf.length() ) );
+    nextOffset = readOffset;
+
+    // New records must not be appended behind a record torn by a crash
+    //
+    long offset = readOffset;
+    while ( offset + 4 <= raf.length() ) {
+      raf.seek( offset );
+      int length = raf.readInt();
+      if ( length <= 0 || offset + 4 + length > raf.length() ) {
+        break;
+      }
+      offset += 4 + length;
+    }
+    if ( offset < raf.length() ) {
+      log.logError( "Discarding an incomplete record at the end of Neo4j logging spool file " + file );
+      raf.setLength( offset );
+      raf.getFD().sync();
+    }
+  }
+
+  /**
+   * Open the first spool file of the connection which isn't locked by another process and lock it
+   */
+  private void lockFile() throws IOException {
+    new File( folder ).mkdirs();
+    for ( int slot = 0; slot < MAX_SLOTS; slot++ ) {
+      File candidate = new File( folder, baseName + ( slot == 0 ? "" : "." + slot ) + ".spool" );
+      RandomAccessFile candidateRaf = new RandomAccessFile( candidate, "rw" );
+      FileLock candidateLock = null;
+      try {
+        candidateLock = candidateRaf.getChannel().tryLock();
+      } catch ( OverlappingFileLockException e ) {
+        // Locked by this JVM
+      } catch ( IOException e ) {
+        candidateRaf.close();
+        throw e;
+      }
+      if ( candidateLock == null ) {
+        candidateRaf.close();
+        continue;
+      }
+      if ( slot > 0 ) {
+        log.logBasic( "Neo4j logging spool file " + file + " is used by another process, spooling to " + candidate );
+      }
+      file = candidate;
+      raf = candidateRaf;
+      lock = candidateLock;
+      return;
+    }
+    throw new IOException( "All " + MAX_SLOTS + " Neo4j logging spool files of connection " + connectionName + " in " + folder + " are locked" );
+  }
+
+  /**
+   * @return true if there are no events waiting to be replayed
+   */
+  public synchronized boolean isEmpty() {
+    try {
+      open();
+      return readOffset >= raf.length();
+    } catch ( IOException e ) {
+      log.logError( "Error opening Neo4j logging spool file " + file, e );
+      return true;
+    }
+  }
+
+  /**
+   * Append the event if other events are still waiting to be replayed, later events need to wait for earlier ones.
+   *
+   * @param event The event to spool
+   * @return true if the event was appended
+   */
+  public synchronized boolean appendIfNotEmpty( LoggingEvent event ) {
+    return !isEmpty() && append( event );
+  }
+
+  /**
+   * Add an event at the end of the spool file
+   *
+   * @param event The event to spool
+   * @return true if the event was appended, false if the spool is full or can't be written
+   */
+  public synchronized boolean append( LoggingEvent event ) {
+    try {
+      open();
+      byte[] data = serialize( event );
+      if ( raf.length() + 4 + data.length > maxSize ) {
+        log.logError( "Neo4j logging spool file " + file + " is full, dropped " + event.getDescription() );
+        return false;
+      }
+      raf.seek( raf.length() );
+      raf.writeInt( data.length );
+      raf.write( data );
+      raf.getFD().sync();
+      return true;
+    } catch ( IOException e ) {
+      log.logError( "Error writing to Neo4j logging spool file " + file, e );
+      return false;
+    }
+  }
+
+  /**
+   * Read the oldest event in the spool without removing it.
+   * Records which can't be read anymore are skipped.
+   *
+   * @return The oldest event or null if the spool is empty
+   */
+  public synchronized LoggingEvent peek() {
+    try {
+      open();
+      while ( readOffset < raf.length() ) {
+        long available = raf.length() - readOffset - 4;
+        if ( available < 0 ) {
+          discardTail( "a torn record length" );
+          return null;
+        }
+        raf.seek( readOffset );
+        int length = raf.readInt();
+        if ( length <= 0 || length > available ) {
+          discardTail( "a corrupt record length " + length );
+          return null;
+        }
+        byte[] data = new byte[ length ];
+        raf.readFully( data );
+        nextOffset = readOffset + 4 + length;
+        try {
+          return deserialize( data );
+        } catch ( ClassNotFoundException | IOException | RuntimeException e ) {
+          log.logError( "Skipping unreadable event in Neo4j logging spool file " + file, e );
+          remove();
+        }
+      }
+    } catch ( IOException e ) {
+      log.logError( "Error reading Neo4j logging spool file " + file + ", the remaining events are discarded", e );
+      try {
+        truncate();
+      } catch ( IOException truncateException ) {
+        log.logError( "Error truncating Neo4j logging spool file " + file, truncateException );
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Remove the event returned by the last call to {@link #peek()}.
+   * The event is never returned again by this spool, even if the new read offset can't be saved.
+   * In that case it's only replayed again if the process dies before the next successful save.
+   */
+  public synchronized void remove() {
+    if ( raf == null ) {
+      return;
+    }
+    readOffset = nextOffset;
+    try {
+      if ( readOffset >= raf.length() ) {
+        truncate();
+      } else {
+        raf.seek( 0 );
+        raf.writeLong( readOffset );
+        raf.getFD().sync();
+      }
+    } catch ( IOException e ) {
+      log.logError( "Error saving the read offset of Neo4j logging spool file " + file, e );
+    }
+  }
+
+  /**
+   * Drop everything from the current read offset on, it can't be read anymore.
+   * Since records are only ever appended this can only be the last record, torn by a crash while it was written.
+   */
+  private void discardTail( String reason ) throws IOException {
+    log.logError( "Discarding the end of Neo4j logging spool file " + file + " at offset " + readOffset + " because of " + reason );
+    raf.setLength( readOffset );
+    if ( readOffset <= HEADER_SIZE ) {
+      truncate();
+    } else {
+      raf.getFD().sync();
+    }
+  }
+
+  private void truncate() throws IOException {
+    raf.setLength( HEADER_SIZE );
+
+    // Records appended from now on start right after the header, whether or not the header can be saved
+    //
+    readOffset = HEADER_SIZE;
+    nextOffset = HEADER_SIZE;
+    raf.seek( 0 );
+    raf.writeLong( HEADER_SIZE );
+    raf.getFD().sync();
+  }
+
+  public synchronized void close() {
+    if ( raf != null ) {
+      try {
+        // Closing the file releases the lock
+        //
+        raf.close();
+      } catch ( IOException e ) {
+        log.logError( "Error closing Neo4j logging spool file " + file, e );
+      }
+      raf = null;
+      lock = null;
+    }
+  }
+
+  private byte[] serialize( LoggingEvent event ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try ( ObjectOutputStream out = new ObjectOutputStream( bytes ) ) {
+      out.writeObject( event );
+    }
+    return bytes.toByteArray();
+  }
+
+  private LoggingEvent deserialize( byte[] data ) throws IOException, ClassNotFoundException {
+    try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( data ) ) ) {
+      return (LoggingEvent) in.readObject();
+    }
+  }
+
+  /**
+   * Gets connectionName
+   *
+   * @return value of connectionName
+   */
+  public String getConnectionName() {
+    return connectionName;
+  }
+
+  /**
+   * Gets file
+   *
+   * @return value of file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Gets connection
+   *
+   * @return value of connection, the last connection used with this name or null if it wasn't used in this JVM yet
+   */
+  public NeoConnection getConnection() {
+    return connection;
+  }
+
+  /**
+   * @param connection The connection to set
+   */
+  public void setConnection( NeoConnection connection ) {
+    this.connection = connection;
+  }
+}
@@ -0,0 +1,52 @@
+package com.neo4j.kettle.logging.writer;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * A single Cypher statement with its parameters, ready to be executed by the logging writer.
+ */
+public class LoggingStatement implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private String cypher;
+  private Map<String, Object> parameters;
+
+  public LoggingStatement( String cypher, Map<String, Object> parameters ) {
+    this.cypher = cypher;
+    this.parameters = parameters;
+  }
+
+  /**
+   * Gets cypher
+   *
+   * @return value of cypher
+   */
+  public String getCypher() {
+    return cypher;
+  }
+
+  /**
+   * @param cypher The cypher to set
+   */
+  public void setCypher( String cypher ) {
+    this.cypher = cypher;
+  }
+
+  /**
+   * Gets parameters
+   *
+   * @return value of parameters
+   */
+  public Map<String, Object> getParameters() {
+    return parameters;
+  }
+
+  /**
+   * @param parameters The parameters to set
+   */
+  public void setParameters( Map<String, Object> parameters ) {
+    this.parameters = parameters;
+  }
+}
@@ -0,0 +1,87 @@
+package com.neo4j.kettle.logging.writer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statements of a logging event which are committed together.
+ * Consecutive transactions of the same parallel phase don't depend on each other and can be written on several sessions at once.
+ */
+public class LoggingTransaction implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private List<LoggingStatement> statements;
+  private String progressMessage;
+  private int phase;
+
+  public LoggingTransaction() {
+    this( null );
+  }
+
+  /**
+   * @param progressMessage The message to log after this transaction was committed or null if there's nothing to report
+   */
+  public LoggingTransaction( String progressMessage ) {
+    this( progressMessage, 0 );
+  }
+
+  /**
+   * @param progressMessage The message to log after this transaction was committed or null if there's nothing to report
+   * @param phase           The parallel phase of this transaction, 0 if it's written on its own
+   */
+  public LoggingTransaction( String progressMessage, int phase ) {
+    this.progressMessage = progressMessage;
+    this.phase = phase;
+    this.statements = new ArrayList<>();
+  }
+
+  /**
+   * Gets statements
+   *
+   * @return value of statements
+   */
+  public List<LoggingStatement> getStatements() {
+    return statements;
+  }
+
+  /**
+   * @param statements The statements to set
+   */
+  public void setStatements( List<LoggingStatement> statements ) {
+    this.statements = statements;
+  }
+
+  /**
+   * Gets progressMessage
+   *
+   * @return value of progressMessage
+   */
+  public String getProgressMessage() {
+    return progressMessage;
+  }
+
+  /**
+   * @param progressMessage The progressMessage to set
+   */
+  public void setProgressMessage( String progressMessage ) {
+    this.progressMessage = progressMessage;
+  }
+
+  /**
+   * Gets phase
+   *
+   * @return value of phase, the parallel phase of this transaction or 0 if it's written on its own
+   */
+  public int getPhase() {
+    return phase;
+  }
+
+  /**
+   * @param phase The phase to set
+   */
+  public void setPhase( int phase ) {
+    this.phase = phase;
+  }
+}
@@ -0,0 +1,970 @@
+package com.neo4j.kettle.logging.writer;
+
+import com.neo4j.kettle.logging.Defaults;
+import com.neo4j.kettle.logging.util.DriverRegistry;
+import com.neo4j.kettle.logging.util.ExecutionAggregator;
+import com.neo4j.kettle.logging.util.LoggingCore;
+import com.neo4j.kettle.logging.util.LoggingSchema;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.TransactionWork;
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.driver.async.AsyncTransaction;
+import org.neo4j.driver.async.ResultCursor;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind engine for the Neo4j logging.
+ * The extension points only put events on a bounded queue, dedicated threads write them to Neo4j.
+ * Events are spread over a number of lanes by execution ID: the events of one execution are written in order,
+ * different executions don't wait for each other.
+ * Pending events are flushed when the JVM shuts down.
+ * Events which can't be written because the logging database is unavailable are kept in a {@link LoggingSpool}
+ * and replayed in the background once the database is back.
+ * A {@link CircuitBreaker} per connection stops all network attempts after repeated failures until a probe succeeds.
+ * In asynchronous mode the lanes don't wait for Neo4j: the transactions of an event are chained on the driver's
+ * event loop after the previous event of the same execution, with a bound on the number of sessions in flight.
+ * Spooling, circuit breaker bookkeeping and session creation are done on a small writer pool, never on the event loop.
+ * With group commit the lanes gather events of different executions for a short while and commit them in one transaction,
+ * the number of events per transaction adapts to the observed commit latency.
+ * The shards of a parallel phase of a large event are written on several sessions at the same time.
+ */
+public class LoggingWriter {
+
+  private static LoggingWriter instance;
+
+  private LogChannelInterface log;
+  private LoggingLane[] lanes;
+  private int queueTimeoutMs;
+  private int flushTimeoutMs;
+  private volatile boolean running;
+
+  private boolean async;
+  private int asyncMaxInFlight;
+  private Semaphore inFlightPermits;
+  private Map<String, CompletableFuture<Void>> executionTails;
+  private ExecutorService asyncExecutor;
+
+  private int groupCommitMs;
+  private int groupCommitMaxEvents;
+  private int groupCommitTargetMs;
+
+  private int parallelism;
+  private ExecutorService shardExecutor;
+
+  private String spoolFolder;
+  private long spoolMaxSize;
+  private int spoolRetryMs;
+  private Map<String, LoggingSpool> spools;
+  private Thread replayer;
+
+  private int breakerFailures;
+  private int breakerSlowMs;
+  private int breakerProbeMs;
+  private Map<String, CircuitBreaker> breakers;
+  private Thread prober;
+
+  private AtomicLong submitted;
+  private AtomicLong written;
+  private AtomicLong failed;
+  private AtomicLong dropped;
+  private AtomicLong discarded;
+  private AtomicLong spooled;
+  private AtomicLong replayed;
+  private AtomicLong groupCommits;
+  private AtomicLong groupedEvents;
+  private AtomicLong totalQueueLatencyMs;
+  private AtomicLong maxQueueLatencyMs;
+  private AtomicLong totalWriteTimeMs;
+  private AtomicLong maxWriteTimeMs;
+
+  private LoggingWriter() {
+    log = new LogChannel( "Neo4j Logging" );
+    int queueSize = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_QUEUE_SIZE, Defaults.DEFAULT_QUEUE_SIZE );
+    int nrLanes = Math.max( 1, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_WRITER_THREADS, Defaults.DEFAULT_WRITER_THREADS ) );
+    queueTimeoutMs = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_QUEUE_TIMEOUT_MS, Defaults.DEFAULT_QUEUE_TIMEOUT_MS );
+    flushTimeoutMs = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_FLUSH_TIMEOUT_MS, Defaults.DEFAULT_FLUSH_TIMEOUT_MS );
+    spoolFolder = Const.NVL( System.getProperty( Defaults.VARIABLE_NEO4J_LOGGING_SPOOL_FOLDER ), Const.getKettleDirectory() + File.separator + "neo4j-logging-spool" );
+    spoolMaxSize = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_SPOOL_MAX_MB, Defaults.DEFAULT_SPOOL_MAX_MB ) * 1024L * 1024L;
+    spoolRetryMs = Math.max( 100, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_SPOOL_RETRY_MS, Defaults.DEFAULT_SPOOL_RETRY_MS ) );
+    spools = new ConcurrentHashMap<>();
+    async = "Y".equalsIgnoreCase( System.getProperty( Defaults.VARIABLE_NEO4J_LOGGING_ASYNC ) );
+    asyncMaxInFlight = Math.max( 1, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_ASYNC_MAX_IN_FLIGHT, Defaults.DEFAULT_ASYNC_MAX_IN_FLIGHT ) );
+    inFlightPermits = new Semaphore( asyncMaxInFlight );
+    executionTails = new ConcurrentHashMap<>();
+    if ( async ) {
+      asyncExecutor = Executors.newFixedThreadPool( nrLanes, runnable -> {
+        Thread thread = new Thread( runnable, "Neo4j logging async writer" );
+        thread.setDaemon( true );
+        return thread;
+      } );
+    }
+    groupCommitMs = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_GROUP_COMMIT_MS, Defaults.DEFAULT_GROUP_COMMIT_MS );
+    groupCommitMaxEvents = Math.max( 1, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_GROUP_COMMIT_MAX_EVENTS, Defaults.DEFAULT_GROUP_COMMIT_MAX_EVENTS ) );
+    groupCommitTargetMs = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_GROUP_COMMIT_TARGET_MS, Defaults.DEFAULT_GROUP_COMMIT_TARGET_MS );
+    parallelism = Math.max( 1, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_WRITER_PARALLELISM, Defaults.DEFAULT_WRITER_PARALLELISM ) );
+    if ( parallelism > 1 && !async ) {
+      shardExecutor = Executors.newFixedThreadPool( parallelism, runnable -> {
+        Thread thread = new Thread( runnable, "Neo4j logging shard writer" );
+        thread.setDaemon( true );
+        return thread;
+      } );
+    }
+    breakerFailures = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_BREAKER_FAILURES, Defaults.DEFAULT_BREAKER_FAILURES );
+    breakerSlowMs = LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_BREAKER_SLOW_MS, Defaults.DEFAULT_BREAKER_SLOW_MS );
+    breakerProbeMs = Math.max( 100, LoggingCore.getSystemInt( Defaults.VARIABLE_NEO4J_LOGGING_BREAKER_PROBE_MS, Defaults.DEFAULT_BREAKER_PROBE_MS ) );
+    breakers = new ConcurrentHashMap<>();
+
+    submitted = new AtomicLong( 0 );
+    written = new AtomicLong( 0 );
+    failed = new AtomicLong( 0 );
+    dropped = new AtomicLong( 0 );
+    discarded = new AtomicLong( 0 );
+    spooled = new AtomicLong( 0 );
+    replayed = new AtomicLong( 0 );
+    groupCommits = new AtomicLong( 0 );
+    groupedEvents = new AtomicLong( 0 );
+    totalQueueLatencyMs = new AtomicLong( 0 );
+    maxQueueLatencyMs = new AtomicLong( 0 );
+    totalWriteTimeMs = new AtomicLong( 0 );
+    maxWriteTimeMs = new AtomicLong( 0 );
+
+    running = true;
+    lanes = new LoggingLane[ nrLanes ];
+    for ( int i = 0; i < nrLanes; i++ ) {
+      LoggingLane lane = new LoggingLane( i, Math.max( 1, queueSize / nrLanes ) );
+      lane.setGroupSize( groupCommitMaxEvents );
+      Thread thread = new Thread( () -> processEvents( lane ), "Neo4j logging writer " + ( i + 1 ) );
+      thread.setDaemon( true );
+      lane.setThread( thread );
+      lanes[ i ] = lane;
+      thread.start();
+    }
+
+    if ( spoolMaxSize > 0 ) {
+      replayer = new Thread( this::replaySpools, "Neo4j logging spool replayer" );
+      replayer.setDaemon( true );
+      replayer.start();
+    }
+
+    if ( breakerFailures > 0 ) {
+      prober = new Thread( this::probeBreakers, "Neo4j logging connection prober" );
+      prober.setDaemon( true );
+      prober.start();
+    }
+
+    Runtime.getRuntime().addShutdownHook( new Thread( this::shutdown, "Neo4j logging flush" ) );
+  }
+
+  public static synchronized LoggingWriter getInstance() {
+    if ( instance == null ) {
+      instance = new LoggingWriter();
+    }
+    return instance;
+  }
+
+  /**
+   * Put an event on the queue of its lane. If the queue stays full for too long the event is dropped rather than holding up Kettle.
+   * Once the writer is shutting down new events are dropped right away.
+   *
+   * @param event the event to write
+   */
+  public void submit( LoggingEvent event ) {
+    if ( event == null || event.isEmpty() ) {
+      return;
+    }
+    if ( !running ) {
+      dropped.incrementAndGet();
+      event.getLog().logError( "Neo4j logging writer is shut down, dropped " + event.getDescription() );
+      handleFailure( event );
+      return;
+    }
+    try {
+      if ( getLane( event ).getQueue().offer( event, queueTimeoutMs, TimeUnit.MILLISECONDS ) ) {
+        submitted.incrementAndGet();
+      } else {
+        dropped.incrementAndGet();
+        event.getLog().logError( "Neo4j logging queue is full, dropped " + event.getDescription() );
+        handleFailure( event );
+      }
+    } catch ( InterruptedException e ) {
+      dropped.incrementAndGet();
+      handleFailure( event );
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private LoggingLane getLane( LoggingEvent event ) {
+    String executionId = event.getExecutionId();
+    if ( executionId == null ) {
+      return lanes[ 0 ];
+    }
+    return lanes[ Math.floorMod( executionId.hashCode(), lanes.length ) ];
+  }
+
+  private void processEvents( LoggingLane lane ) {
+    BlockingQueue<LoggingEvent> queue = lane.getQueue();
+    while ( running || !queue.isEmpty() ) {
+      try {
+        LoggingEvent event = queue.poll( 250, TimeUnit.MILLISECONDS );
+        if ( event != null ) {
+          if ( async ) {
+            writeAsync( event );
+          } else if ( groupCommitMs > 0 ) {
+            writeGroups( lane, event );
+          } else {
+            write( event );
+          }
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch ( Throwable e ) {
+        log.logError( "Unexpected error in the Neo4j logging writer", e );
+      }
+    }
+  }
+
+  private void write( LoggingEvent event ) {
+    long startTime = System.currentTimeMillis();
+    updateLatency( totalQueueLatencyMs, maxQueueLatencyMs, startTime - event.getCreationTime() );
+
+    LoggingSpool spool = getSpool( event.getConnection() );
+    CircuitBreaker breaker = getBreaker( event.getConnection() );
+    if ( isSpooledOrSkipped( event, spool, breaker ) ) {
+      return;
+    }
+
+    Session session = null;
+    try {
+      LoggingSchema.bootstrap( event.getLog(), event.getConnection() );
+
+      session = DriverRegistry.getSession( event.getLog(), event.getConnection() );
+      long transactionMs = execute( session, event );
+      handleWritten( breaker, transactionMs );
+    } catch ( Exception e ) {
+      handleWriteError( event, breaker, spool, e );
+    } finally {
+      DriverRegistry.release( session );
+      updateLatency( totalWriteTimeMs, maxWriteTimeMs, System.currentTimeMillis() - startTime );
+    }
+  }
+
+  /**
+   * Gather more events from the lane for at most the group commit time and commit them per connection in as few transactions as possible.
+   * Events which need several transactions are written on their own, in their place, so the order of every execution is kept.
+   */
+  private void writeGroups( LoggingLane lane, LoggingEvent first ) throws InterruptedException {
+    List<LoggingEvent> events = new ArrayList<>();
+    events.add( first );
+    int maxEvents = lane.getGroupSize();
+    long deadline = System.currentTimeMillis() + groupCommitMs;
+    while ( events.size() < maxEvents ) {
+      long waitMs = deadline - System.currentTimeMillis();
+      if ( waitMs <= 0 || !running ) {
+        lane.getQueue().drainTo( events, maxEvents - events.size() );
+        break;
+      }
+      LoggingEvent event = lane.getQueue().poll( waitMs, TimeUnit.MILLISECONDS );
+      if ( event == null ) {
+        break;
+      }
+      events.add( event );
+    }
+
+    Map<String, List<LoggingEvent>> connectionEvents = new LinkedHashMap<>();
+    for ( LoggingEvent event : events ) {
+      connectionEvents.computeIfAbsent( event.getConnection().getName(), name -> new ArrayList<>() ).add( event );
+    }
+    for ( List<LoggingEvent> list : connectionEvents.values() ) {
+      List<LoggingEvent> group = new ArrayList<>();
+      for ( LoggingEvent event : list ) {
+        if ( event.isSingleTransaction() ) {
+          group.add( event );
+        } else {
+          writeGroup( lane, group );
+          group.clear();
+          write( event );
+        }
+      }
+      writeGroup( lane, group );
+    }
+  }
+
+  /**
+   * Commit the statements of a number of events of the same connection in a single transaction.
+   * If that fails, every event is written on its own so only the failing ones are spooled or reported.
+   */
+  private void writeGroup( LoggingLane lane, List<LoggingEvent> group ) {
+    if ( group.isEmpty() ) {
+      return;
+    }
+    if ( group.size() == 1 ) {
+      write( group.get( 0 ) );
+      return;
+    }
+
+    // Let the spool and the circuit breaker handle the events one by one
+    //
+    NeoConnection connection = group.get( 0 ).getConnection();
+    LoggingSpool spool = getSpool( connection );
+    CircuitBreaker breaker = getBreaker( connection );
+    if ( ( spool != null && !spool.isEmpty() ) || breaker.isOpen() ) {
+      for ( LoggingEvent event : group ) {
+        write( event );
+      }
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+    long commitStartTime = startTime;
+    Session session = null;
+    try {
+      LoggingSchema.bootstrap( log, connection );
+
+      session = DriverRegistry.getSession( log, connection );
+      commitStartTime = System.currentTimeMillis();
+      session.writeTransaction( new TransactionWork<Void>() {
+        @Override public Void execute( Transaction transaction ) {
+          for ( LoggingEvent event : group ) {
+            for ( LoggingTransaction loggingTransaction : event.getTransactions() ) {
+              for ( LoggingStatement statement : loggingTransaction.getStatements() ) {
+                transaction.run( statement.getCypher(), statement.getParameters() );
+              }
+            }
+          }
+          return null;
+        }
+      } );
+    } catch ( Exception e ) {
+      log.logDetailed( "Group commit of " + group.size() + " Neo4j logging events failed, writing them one by one : " + e.getMessage() );
+      lane.adaptGroupSize( group.size(), Long.MAX_VALUE, groupCommitTargetMs, groupCommitMaxEvents );
+      for ( LoggingEvent event : group ) {
+        write( event );
+      }
+      return;
+    } finally {
+      DriverRegistry.release( session );
+    }
+
+    long durationMs = System.currentTimeMillis() - commitStartTime;
+    lane.adaptGroupSize( group.size(), durationMs, groupCommitTargetMs, groupCommitMaxEvents );
+    groupCommits.incrementAndGet();
+    groupedEvents.addAndGet( group.size() );
+    if ( breaker.recordSuccess( durationMs ) ) {
+      reportOpened( breaker, "writes are too slow" );
+    }
+    for ( LoggingEvent event : group ) {
+      written.incrementAndGet();
+      updateLatency( totalQueueLatencyMs, maxQueueLatencyMs, startTime - event.getCreationTime() );
+      updateLatency( totalWriteTimeMs, maxWriteTimeMs, durationMs );
+      for ( LoggingTransaction loggingTransaction : event.getTransactions() ) {
+        logProgress( event, loggingTransaction );
+      }
+    }
+  }
+
+  /**
+   * @return true if the event was spooled or dropped without a network attempt
+   */
+  private boolean isSpooledOrSkipped( LoggingEvent event, LoggingSpool spool, CircuitBreaker breaker ) {
+    // While earlier events are waiting in the spool, later ones join them to keep the order.
+    // This also avoids a connection timeout for every event while the database is down.
+    //
+    if ( spool != null && spool.appendIfNotEmpty( event ) ) {
+      spooled.incrementAndGet();
+      return true;
+    }
+
+    // Don't even try while the connection is known to be unavailable
+    //
+    if ( breaker.isOpen() ) {
+      if ( spool != null && spool.append( event ) ) {
+        spooled.incrementAndGet();
+      } else {
+        dropped.incrementAndGet();
+        discarded.incrementAndGet();
+        handleFailure( event );
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param transactionMs The average time a transaction of the event took, schema creation and waiting for a session left out
+   */
+  private void handleWritten( CircuitBreaker breaker, long transactionMs ) {
+    written.incrementAndGet();
+    if ( breaker.recordSuccess( transactionMs ) ) {
+      reportOpened( breaker, "writes are too slow" );
+    }
+  }
+
+  private void handleWriteError( LoggingEvent event, CircuitBreaker breaker, LoggingSpool spool, Throwable e ) {
+    if ( e instanceof CompletionException && e.getCause() != null ) {
+      e = e.getCause();
+    }
+    if ( LoggingSpool.isRetryable( e ) && breaker.recordFailure() ) {
+      reportOpened( breaker, e.getMessage() );
+    }
+    if ( spool != null && LoggingSpool.isRetryable( e ) && spool.append( event ) ) {
+      spooled.incrementAndGet();
+      event.getLog().logError( "Neo4j logging database unavailable, spooled " + event.getDescription() + " to " + spool.getFile() + " : " + e.getMessage() );
+    } else {
+      failed.incrementAndGet();
+      event.getLog().logError( "Error logging " + event.getDescription(), e );
+      handleFailure( event );
+    }
+  }
+
+  /**
+   * Start writing an event without waiting for Neo4j.
+   * The event is chained after the previous event of the same execution so the order is preserved.
+   * The lane blocks while the maximum number of sessions is in flight, which in turn fills up the queue.
+   */
+  private void writeAsync( LoggingEvent event ) throws InterruptedException {
+    int permits = Math.min( asyncMaxInFlight, getNrSessions( event ) );
+    inFlightPermits.acquire( permits );
+
+    // Creating the schema uses blocking calls which aren't allowed on the driver's event loop
+    //
+    if ( !getBreaker( event.getConnection() ).isOpen() ) {
+      LoggingSchema.bootstrap( event.getLog(), event.getConnection() );
+    }
+
+    String key = Const.NVL( event.getExecutionId(), "" );
+    CompletableFuture<Void> tail = new CompletableFuture<>();
+    CompletableFuture<Void> previous = executionTails.put( key, tail );
+    ( previous == null ? CompletableFuture.<Void>completedFuture( null ) : previous )
+      .thenComposeAsync( ignored -> executeAsync( event ), asyncExecutor )
+      .whenCompleteAsync( ( result, e ) -> {
+        if ( e != null ) {
+          log.logError( "Unexpected error in the Neo4j logging writer", e );
+        }
+        executionTails.remove( key, tail );
+        inFlightPermits.release( permits );
+        tail.complete( null );
+      }, asyncExecutor );
+  }
+
+  /**
+   * @return The number of sessions writing the event at the same time in asynchronous mode:
+   * its own session plus the shards of its largest parallel phase
+   */
+  private int getNrSessions( LoggingEvent event ) {
+    int maxShards = 0;
+    for ( List<LoggingTransaction> phase : event.getPhases() ) {
+      if ( phase.size() > 1 && parallelism > 1 ) {
+        maxShards = Math.max( maxShards, Math.min( phase.size(), parallelism ) );
+      }
+    }
+    return 1 + maxShards;
+  }
+
+  /**
+   * Write the transactions of an event one after the other on an asynchronous session.
+   * Only the transactions themselves run on the driver's event loop, everything which can block runs on the writer pool.
+   *
+   * @return A stage which completes when the event is written, spooled or failed
+   */
+  private CompletionStage<Void> executeAsync( LoggingEvent event ) {
+    long startTime = System.currentTimeMillis();
+    updateLatency( totalQueueLatencyMs, maxQueueLatencyMs, startTime - event.getCreationTime() );
+
+    LoggingSpool spool = getSpool( event.getConnection() );
+    CircuitBreaker breaker = getBreaker( event.getConnection() );
+    if ( isSpooledOrSkipped( event, spool, breaker ) ) {
+      return CompletableFuture.completedFuture( null );
+    }
+
+    AsyncSession session;
+    try {
+      session = DriverRegistry.getAsyncSession( event.getLog(), event.getConnection() );
+    } catch ( Exception e ) {
+      handleWriteError( event, breaker, spool, e );
+      return CompletableFuture.completedFuture( null );
+    }
+    long transactionsStartTime = System.currentTimeMillis();
+    int nrTransactions = 0;
+    CompletionStage<Void> stage = CompletableFuture.completedFuture( null );
+    for ( List<LoggingTransaction> phase : event.getPhases() ) {
+      nrTransactions += phase.size();
+      if ( phase.size() > 1 && parallelism > 1 ) {
+        stage = stage.thenComposeAsync( ignored -> executeShardsAsync( event, phase ), asyncExecutor );
+        continue;
+      }
+      for ( LoggingTransaction loggingTransaction : phase ) {
+        stage = stage
+          .thenCompose( ignored -> session.writeTransactionAsync( tx -> runAsync( tx, loggingTransaction.getStatements() ) ) )
+          .thenAcceptAsync( ignored -> logProgress( event, loggingTransaction ), asyncExecutor );
+      }
+    }
+    int transactions = Math.max( 1, nrTransactions );
+    return stage
+      .handleAsync( ( result, e ) -> {
+        if ( e == null ) {
+          handleWritten( breaker, ( System.currentTimeMillis() - transactionsStartTime ) / transactions );
+        } else {
+          handleWriteError( event, breaker, spool, e );
+        }
+        return null;
+      }, asyncExecutor )
+      .thenCompose( ignored -> DriverRegistry.releaseAsync( session ) )
+      .handle( ( result, e ) -> {
+        updateLatency( totalWriteTimeMs, maxWriteTimeMs, System.currentTimeMillis() - startTime );
+        return null;
+      } );
+  }
+
+  /**
+   * Write the shards of a parallel phase on at most the writer parallelism sessions at the same time.
+   * Shard i is chained after shard i - parallelism.
+   */
+  private CompletionStage<Void> executeShardsAsync( LoggingEvent event, List<LoggingTransaction> phase ) {
+    List<CompletableFuture<Void>> chains = new ArrayList<>();
+    for ( int i = 0; i < phase.size(); i++ ) {
+      LoggingTransaction loggingTransaction = phase.get( i );
+      if ( i < parallelism ) {
+        chains.add( executeShardAsync( event, loggingTransaction ).toCompletableFuture() );
+      } else {
+        int chain = i % parallelism;
+        chains.set( chain, chains.get( chain )
+          .thenComposeAsync( ignored -> executeShardAsync( event, loggingTransaction ), asyncExecutor ) );
+      }
+    }
+    return CompletableFuture.allOf( chains.toArray( new CompletableFuture[ 0 ] ) );
+  }
+
+  /**
+   * Write a shard of a parallel phase on its own asynchronous session
+   */
+  private CompletionStage<Void> executeShardAsync( LoggingEvent event, LoggingTransaction loggingTransaction ) {
+    AsyncSession session = DriverRegistry.getAsyncSession( event.getLog(), event.getConnection() );
+    return session.writeTransactionAsync( tx -> runAsync( tx, loggingTransaction.getStatements() ) )
+      .handle( ( result, e ) -> e )
+      .thenCompose( e -> DriverRegistry.releaseAsync( session ).thenApplyAsync( ignored -> {
+        if ( e != null ) {
+          throw e instanceof CompletionException ? (CompletionException) e : new CompletionException( e );
+        }
+        logProgress( event, loggingTransaction );
+        return null;
+      }, asyncExecutor ) );
+  }
+
+  private CompletionStage<Void> runAsync( AsyncTransaction transaction, List<LoggingStatement> statements ) {
+    CompletionStage<Void> stage = CompletableFuture.completedFuture( null );
+    for ( LoggingStatement statement : statements ) {
+      stage = stage
+        .thenCompose( ignored -> transaction.runAsync( statement.getCypher(), statement.getParameters() ) )
+        .thenCompose( ResultCursor::consumeAsync )
+        .thenApply( summary -> null );
+    }
+    return stage;
+  }
+
+  /**
+   * @return The average time a transaction of the event took
+   */
+  private long execute( Session session, LoggingEvent event ) {
+    long totalMs = 0;
+    int nrTransactions = 0;
+    for ( List<LoggingTransaction> phase : event.getPhases() ) {
+      nrTransactions += phase.size();
+      if ( phase.size() > 1 && shardExecutor != null ) {
+        totalMs += executeShards( event, phase );
+        continue;
+      }
+      for ( LoggingTransaction loggingTransaction : phase ) {
+        totalMs += executeTransaction( session, event, loggingTransaction );
+      }
+    }
+    return nrTransactions == 0 ? 0 : totalMs / nrTransactions;
+  }
+
+  /**
+   * @return The time it took to commit the transaction
+   */
+  private long executeTransaction( Session session, LoggingEvent event, LoggingTransaction loggingTransaction ) {
+    long startTime = System.currentTimeMillis();
+    session.writeTransaction( new TransactionWork<Void>() {
+      @Override public Void execute( Transaction transaction ) {
+        for ( LoggingStatement statement : loggingTransaction.getStatements() ) {
+          transaction.run( statement.getCypher(), statement.getParameters() );
+        }
+        return null;
+      }
+    } );
+    long durationMs = System.currentTimeMillis() - startTime;
+    logProgress( event, loggingTransaction );
+    return durationMs;
+  }
+
+  /**
+   * Write the shards of a parallel phase, each on its own session, and wait until they're all committed.
+   * The first error is thrown once all shards are done so the next phase never starts on top of an incomplete one.
+   *
+   * @return The total time the shard transactions took
+   */
+  private long executeShards( LoggingEvent event, List<LoggingTransaction> phase ) {
+    List<Future<Long>> futures = new ArrayList<>();
+    for ( LoggingTransaction loggingTransaction : phase ) {
+      futures.add( shardExecutor.submit( () -> {
+        Session session = null;
+        try {
+          session = DriverRegistry.getSession( event.getLog(), event.getConnection() );
+          return executeTransaction( session, event, loggingTransaction );
+        } finally {
+          DriverRegistry.release( session );
+        }
+      } ) );
+    }
+
+    long totalMs = 0;
+    RuntimeException error = null;
+    for ( Future<Long> future : futures ) {
+      try {
+        totalMs += future.get();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        if ( error == null ) {
+          error = new RuntimeException( "Interrupted while writing the shards of " + event.getDescription(), e );
+        }
+      } catch ( ExecutionException e ) {
+        if ( error == null ) {
+          error = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException( e.getCause() );
+        }
+      }
+    }
+    if ( error != null ) {
+      throw error;
+    }
+    return totalMs;
+  }
+
+  private void logProgress( LoggingEvent event, LoggingTransaction loggingTransaction ) {
+    if ( loggingTransaction.getProgressMessage() != null ) {
+      event.getLog().logDetailed( loggingTransaction.getProgressMessage() );
+    }
+  }
+
+  /**
+   * @param connection The logging connection
+   * @return The spool of the connection or null if spooling is disabled
+   */
+  private LoggingSpool getSpool( NeoConnection connection ) {
+    if ( spoolMaxSize <= 0 || connection == null ) {
+      return null;
+    }
+    LoggingSpool spool = spools.computeIfAbsent( connection.getName(), name -> new LoggingSpool( name, spoolFolder, spoolMaxSize, log ) );
+    // Remember the latest connection so events spooled by an earlier run can be replayed
+    //
+    spool.setConnection( connection );
+    return spool;
+  }
+
+  /**
+   * @param connection The logging connection
+   * @return The circuit breaker of the connection
+   */
+  private CircuitBreaker getBreaker( NeoConnection connection ) {
+    CircuitBreaker breaker = breakers.computeIfAbsent( connection.getName(), name -> new CircuitBreaker( name, breakerFailures, breakerSlowMs ) );
+    breaker.setConnection( connection );
+    return breaker;
+  }
+
+  private void reportOpened( CircuitBreaker breaker, String reason ) {
+    log.logError( "Neo4j logging connection " + breaker.getConnectionName() + " is unavailable (" + reason + "), "
+      + ( spoolMaxSize > 0 ? "spooling" : "skipping" ) + " logging until it recovers" );
+  }
+
+  private void probeBreakers() {
+    while ( running ) {
+      try {
+        Thread.sleep( breakerProbeMs );
+        for ( CircuitBreaker breaker : new ArrayList<>( breakers.values() ) ) {
+          if ( breaker.isOpen() ) {
+            probe( breaker );
+          }
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch ( Throwable e ) {
+        log.logError( "Unexpected error in the Neo4j logging connection prober", e );
+      }
+    }
+  }
+
+  /**
+   * Run a trivial query on the connection of an open breaker and close the breaker if it succeeds in time
+   */
+  private void probe( CircuitBreaker breaker ) {
+    Session session = null;
+    long startTime = System.currentTimeMillis();
+    try {
+      session = DriverRegistry.getSession( log, breaker.getConnection() );
+      session.readTransaction( tx -> tx.run( "RETURN 1" ).consume() );
+      if ( breakerSlowMs <= 0 || System.currentTimeMillis() - startTime <= breakerSlowMs ) {
+        breaker.close();
+        log.logBasic( "Neo4j logging connection " + breaker.getConnectionName() + " is available again after "
+          + ( System.currentTimeMillis() - breaker.getOpenedTime() ) + "ms" );
+      }
+    } catch ( Exception e ) {
+      log.logDetailed( "Neo4j logging connection " + breaker.getConnectionName() + " is still unavailable : " + e.getMessage() );
+    } finally {
+      DriverRegistry.release( session );
+    }
+  }
+
+  private void replaySpools() {
+    while ( running ) {
+      try {
+        Thread.sleep( spoolRetryMs );
+        for ( LoggingSpool spool : new ArrayList<>( spools.values() ) ) {
+          if ( spool.getConnection() != null && !getBreaker( spool.getConnection() ).isOpen() && !spool.isEmpty() ) {
+            replay( spool );
+          }
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch ( Throwable e ) {
+        log.logError( "Unexpected error in the Neo4j logging spool replayer", e );
+      }
+    }
+  }
+
+  /**
+   * Write the spooled events of a connection in order, using a single session, until the spool is empty or the database fails again.
+   */
+  private void replay( LoggingSpool spool ) {
+    NeoConnection connection = spool.getConnection();
+    Session session = null;
+    long count = 0;
+    try {
+      LoggingSchema.bootstrap( log, connection );
+
+      session = DriverRegistry.getSession( log, connection );
+      LoggingEvent event;
+      while ( running && ( event = spool.peek() ) != null ) {
+        event.setConnection( connection );
+        event.setLog( log );
+        try {
+          execute( session, event );
+        } catch ( RuntimeException e ) {
+          if ( LoggingSpool.isRetryable( e ) ) {
+            if ( getBreaker( connection ).recordFailure() ) {
+              reportOpened( getBreaker( connection ), e.getMessage() );
+            }
+            throw e;
+          }
+          log.logError( "Error replaying spooled " + event.getDescription() + ", skipping it", e );
+        }
+        spool.remove();
+        replayed.incrementAndGet();
+        count++;
+      }
+    } catch ( Exception e ) {
+      log.logDetailed( "Replay of spooled Neo4j logging events of connection " + connection.getName() + " stopped, retrying later : " + e.getMessage() );
+    } finally {
+      DriverRegistry.release( session );
+      if ( count > 0 ) {
+        log.logBasic( "Replayed " + count + " spooled Neo4j logging events of connection " + connection.getName() );
+      }
+    }
+  }
+
+  private void handleFailure( LoggingEvent event ) {
+    if ( event.getFailureHandler() != null ) {
+      event.getFailureHandler().run();
+    }
+  }
+
+  private void updateLatency( AtomicLong total, AtomicLong max, long latency ) {
+    total.addAndGet( latency );
+    max.accumulateAndGet( latency, Math::max );
+  }
+
+  /**
+   * Wait until all events submitted so far are written, spooled, failed or dropped by the writer, or the timeout expires.
+   *
+   * @param timeoutMs the maximum time to wait
+   * @return true if the queue was flushed completely
+   */
+  public boolean flush( long timeoutMs ) {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while ( getPending() > 0 ) {
+      if ( System.currentTimeMillis() > deadline || ( !isAlive() && getInFlight() == 0 ) ) {
+        return false;
+      }
+      try {
+        Thread.sleep( 10 );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The number of submitted events the writer didn't finish with yet
+   */
+  private long getPending() {
+    return submitted.get() - written.get() - failed.get() - spooled.get() - discarded.get();
+  }
+
+  private boolean isAlive() {
+    for ( LoggingLane lane : lanes ) {
+      if ( lane.getThread().isAlive() ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void shutdown() {
+    ExecutionAggregator.flushAll();
+    running = false;
+    if ( !flush( flushTimeoutMs ) ) {
+      log.logError( "Unable to flush " + getPending() + " Neo4j logging events at shutdown" );
+    }
+
+    // The lanes won't get to what is still queued, including events submitted while we were shutting down
+    //
+    for ( LoggingLane lane : lanes ) {
+      List<LoggingEvent> events = new ArrayList<>();
+      lane.getQueue().drainTo( events );
+      for ( LoggingEvent event : events ) {
+        dropped.incrementAndGet();
+        discarded.incrementAndGet();
+        handleFailure( event );
+      }
+    }
+    log.logDetailed( getStatistics() );
+    log.logDetailed( DriverRegistry.getStatistics() );
+    if ( shardExecutor != null ) {
+      shardExecutor.shutdown();
+    }
+    if ( asyncExecutor != null ) {
+      asyncExecutor.shutdown();
+    }
+    for ( LoggingSpool spool : spools.values() ) {
+      spool.close();
+    }
+    DriverRegistry.closeAll();
+  }
+
+  /**
+   * @return A one line summary of the writer counters
+   */
+  public String getStatistics() {
+    long processed = Math.max( 1, written.get() + failed.get() );
+    return "Neo4j logging writer : queue depth " + getQueueDepth()
+      + ( async ? ", in flight " + getInFlight() : "" )
+      + ", submitted " + submitted.get()
+      + ", written " + written.get()
+      + ", failed " + failed.get()
+      + ", dropped " + dropped.get()
+      + ", spooled " + spooled.get()
+      + ", replayed " + replayed.get()
+      + ( groupCommitMs > 0 ? ", group commits " + groupCommits.get() + " of " + groupedEvents.get() + " events" : "" )
+      + ", average queue latency " + ( totalQueueLatencyMs.get() / processed ) + "ms"
+      + ", max queue latency " + maxQueueLatencyMs.get() + "ms"
+      + ", average write time " + ( totalWriteTimeMs.get() / processed ) + "ms"
+      + ", max write time " + maxWriteTimeMs.get() + "ms";
+  }
+
+  public int getQueueDepth() {
+    int depth = 0;
+    for ( LoggingLane lane : lanes ) {
+      depth += lane.getQueue().size();
+    }
+    return depth;
+  }
+
+  /**
+   * @return The number of sessions writing events asynchronously, always 0 in blocking mode
+   */
+  public int getInFlight() {
+    return async ? asyncMaxInFlight - inFlightPermits.availablePermits() : 0;
+  }
+
+  public boolean isAsync() {
+    return async;
+  }
+
+  public int getNrLanes() {
+    return lanes.length;
+  }
+
+  public long getSubmitted() {
+    return submitted.get();
+  }
+
+  public long getWritten() {
+    return written.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  public long getSpooled() {
+    return spooled.get();
+  }
+
+  public long getReplayed() {
+    return replayed.get();
+  }
+
+  public long getGroupCommits() {
+    return groupCommits.get();
+  }
+
+  public long getGroupedEvents() {
+    return groupedEvents.get();
+  }
+
+  public long getTotalQueueLatencyMs() {
+    return totalQueueLatencyMs.get();
+  }
+
+  public long getMaxQueueLatencyMs() {
+    return maxQueueLatencyMs.get();
+  }
+
+  public long getTotalWriteTimeMs() {
+    return totalWriteTimeMs.get();
+  }
+
+  public long getMaxWriteTimeMs() {
+    return maxWriteTimeMs.get();
+  }
+}
@@ -23,6 +23,7 @@
 package com.neo4j.kettle.spoon;
 
 import com.neo4j.kettle.logging.Defaults;
+import com.neo4j.kettle.logging.util.DriverRegistry;
 import com.neo4j.kettle.logging.util.LoggingCore;
 import com.neo4j.kettle.spoon.history.HistoryResult;
 import com.neo4j.kettle.spoon.history.HistoryResults;
@@ -139,16 +140,14 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
 
       Session session = null;
       try {
-        session = connection.getSession( spoon.getLog() );
+        session = DriverRegistry.getSession( spoon.getLog(), connection );
         lookupExecutionHistory( historyResults, spoon.getLog(), session, errorsOnly, false );
 
         HistoryResultsDialog historyResultsDialog = new HistoryResultsDialog( spoon.getShell(), historyResults );
         historyResultsDialog.open();
 
       } finally {
-        if ( session != null ) {
-          session.close();
-        }
+        DriverRegistry.release( session );
       }
     } catch ( Exception e ) {
       new ErrorDialog( spoon.getShell(), "Error", "Error examining step logs", e );
@@ -167,16 +166,14 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
       if ( historyResults != null ) {
         Session session = null;
         try {
-          session = connection.getSession(spoon.getLog());
+          session = DriverRegistry.getSession( spoon.getLog(), connection );
           lookupExecutionHistory( historyResults, spoon.getLog(), session, false, false );
 
           HistoryResultsDialog historyResultsDialog = new HistoryResultsDialog( spoon.getShell(), historyResults );
           historyResultsDialog.open();
 
         } finally {
-          if ( session != null ) {
-            session.close();
-          }
+          DriverRegistry.release( session );
         }
       }
     } catch ( Exception e ) {
@@ -245,16 +242,14 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
 
       Session session = null;
       try {
-        session = connection.getSession(spoon.getLog());
+        session = DriverRegistry.getSession( spoon.getLog(), connection );
         lookupExecutionHistory( historyResults, spoon.getLog(), session, errorsOnly, false );
 
         HistoryResultsDialog historyResultsDialog = new HistoryResultsDialog( spoon.getShell(), historyResults );
         historyResultsDialog.open();
 
       } finally {
-        if ( session != null ) {
-          session.close();
-        }
+        DriverRegistry.release( session );
       }
     } catch ( Exception e ) {
       new ErrorDialog( spoon.getShell(), "Error", "Error examining job entry logs", e );
@@ -291,8 +286,10 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
     cypher.append( "RETURN se.id, se.name, se.type, se.copy, se.registrationDate, " );
     cypher.append( "        se.linesWritten, se.linesRead, se.linesInput, " );
     cypher.append( "        se.linesOutput, se.linesRejected, se.errors, se.durationMs," );
-    cypher.append( "        se.loggingText, se.root " );
-    cypher.append( " ORDER BY se.registrationDate DESC " );
+    cypher.append( "        se.root " );
+    // Native datetime values first, then the date strings written by older versions
+    //
+    cypher.append( " ORDER BY CASE WHEN se.registrationDate >= datetime({epochMillis: 0}) THEN 1 ELSE 0 END DESC, se.registrationDate DESC " );
     cypher.append( "LIMIT 20 " );
 
     // Get the last 20 executions
@@ -312,7 +309,7 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
           execution.setName( LoggingCore.getStringValue( record, index++ ) );
           execution.setType( LoggingCore.getStringValue( record, index++ ) );
           execution.setCopy( LoggingCore.getStringValue( record, index++ ) );
-          execution.setRegistrationDate( LoggingCore.getStringValue( record, index++ ) );
+          execution.setRegistrationDate( LoggingCore.formatDate( LoggingCore.getDateValue( record, index++ ) ) );
           execution.setWritten( LoggingCore.getLongValue( record, index++ ) );
           execution.setRead( LoggingCore.getLongValue( record, index++ ) );
           execution.setInput( LoggingCore.getLongValue( record, index++ ) );
@@ -320,7 +317,6 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
           execution.setRejected( LoggingCore.getLongValue( record, index++ ) );
           execution.setErrors( LoggingCore.getLongValue( record, index++ ) );
           execution.setDurationMs( LoggingCore.getLongValue( record, index++ ) );
-          execution.setLoggingText( LoggingCore.getStringValue( record, index++ ) );
           execution.setRoot( LoggingCore.getBooleanValue( record, index++ ) );
           historyResults.getLastExecutions().add( execution );
 
@@ -374,14 +370,13 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
                 // System.out.println(" - Node name : "+pathExecution.getName());
                 pathExecution.setType( LoggingCore.getStringValue( node, "type" ) );
                 pathExecution.setCopy( LoggingCore.getStringValue( node, "copy" ) );
-                pathExecution.setRegistrationDate( LoggingCore.getStringValue( node, "registrationDate" ) );
+                pathExecution.setRegistrationDate( LoggingCore.formatDate( LoggingCore.getDateValue( node, "registrationDate" ) ) );
                 pathExecution.setWritten( LoggingCore.getLongValue( node, "linesWritten" ) );
                 pathExecution.setRead( LoggingCore.getLongValue( node, "linesRead" ) );
                 pathExecution.setInput( LoggingCore.getLongValue( node, "linesInput" ) );
                 pathExecution.setOutput( LoggingCore.getLongValue( node, "linesOutput" ) );
                 pathExecution.setRejected( LoggingCore.getLongValue( node, "linesRejected" ) );
                 pathExecution.setErrors( LoggingCore.getLongValue( node, "errors" ) );
-                pathExecution.setLoggingText( LoggingCore.getStringValue( node, "loggingText" ) );
                 pathExecution.setDurationMs( LoggingCore.getLongValue( node, "durationMs" ) );
 
                 if ( errorPath ) {
@@ -413,7 +408,7 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
 
     Spoon spoon = Spoon.getInstance();
     try {
-      session = connection.getSession(spoon.getLog());
+      session = DriverRegistry.getSession( spoon.getLog(), connection );
 
       // First, find the last execution of the current transformation or job.
       //
@@ -429,7 +424,7 @@ public class NeoLoggingHelper extends AbstractXulEventHandler implements ISpoonM
     } catch ( Exception e ) {
       new ErrorDialog( spoon.getShell(), "Error", "Error finding error path", e );
     } finally {
-      session.close();
+      DriverRegistry.release( session );
     }
   }
 
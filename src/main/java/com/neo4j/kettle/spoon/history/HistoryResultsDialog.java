@@ -1,6 +1,8 @@
 package com.neo4j.kettle.spoon.history;
 
+import com.neo4j.kettle.logging.util.DriverRegistry;
 import com.neo4j.kettle.logging.util.LoggingCore;
+import com.neo4j.kettle.logging.util.LoggingTextNodes;
 import com.neo4j.kettle.model.AreaOwner;
 import com.neo4j.kettle.model.AreaType;
 import com.neo4j.kettle.model.DataModel;
@@ -88,7 +90,6 @@ public class HistoryResultsDialog {
   private String treeName;
 
   private NeoConnection connection;
-  private Session session;
   private Color colorLightBlue;
   private Color colorLightRed;
   private Color colorRed;
@@ -107,11 +108,9 @@ public class HistoryResultsDialog {
     space.initializeVariablesFrom( null );
     try {
       connection = LoggingCore.getConnection( Spoon.getInstance().getMetaStore(), space );
-      session = connection.getSession( LogChannel.UI );
     } catch(Exception e) {
-      Spoon.getInstance().getLog().logError("Error getting session: ", e);
+      Spoon.getInstance().getLog().logError("Error getting connection: ", e);
       connection = null;
-      session = null;
     }
     mouseDownPoint = new Point( -1, -1 );
     colorLightBlue = new Color(parent.getDisplay(), 240,248,255); // aliceblue
@@ -590,7 +589,7 @@ public class HistoryResultsDialog {
     cypher.append( "-[:STEP_OF_TRANSFORMATION]->(transMeta:Transformation) " );
     cypher.append( "RETURN transMeta.filename, stepMeta.name " );
 
-    String[] names = session.readTransaction( new TransactionWork<String[]>() {
+    String[] names = readTransaction( new TransactionWork<String[]>() {
       @Override public String[] execute( Transaction tx ) {
         Result statementResult = tx.run( cypher.toString(), params );
         if (!statementResult.hasNext()) {
@@ -653,7 +652,7 @@ public class HistoryResultsDialog {
     cypher.append( "-[:JOBENTRY_OF_JOB]->(jobMeta:Job) " ); // JobMeta
     cypher.append( "RETURN jobMeta.filename, jobEntryMeta.name " );
 
-    String[] names = session.readTransaction( new TransactionWork<String[]>() {
+    String[] names = readTransaction( new TransactionWork<String[]>() {
       @Override public String[] execute( Transaction tx ) {
 
         Result statementResult = tx.run( cypher.toString(), params );
@@ -714,7 +713,7 @@ public class HistoryResultsDialog {
     cypher.append( "MATCH(ex)-[:"+relationship+"]->(tr) " );
     cypher.append( "RETURN tr.filename " );
 
-    String filename = session.readTransaction( new TransactionWork<String>() {
+    String filename = readTransaction( new TransactionWork<String>() {
       @Override public String execute( Transaction tx ) {
         Result statementResult = tx.run( cypher.toString(), params );
         if (!statementResult.hasNext()) {
@@ -736,6 +735,33 @@ public class HistoryResultsDialog {
     }
   }
 
+  /**
+   * The logging text is kept in separate (:LogText) nodes and only loaded when an execution is selected
+   */
+  private String getLoggingText( HistoryResult hr ) {
+    if ( hr.getLoggingText() == null && connection != null && hr.getId() != null ) {
+      try {
+        hr.setLoggingText( readTransaction( tx -> LoggingTextNodes.read( tx, hr.getId() ) ) );
+      } catch ( Exception e ) {
+        LogChannel.UI.logError( "Error loading logging text of execution " + hr.getId(), e );
+      }
+    }
+    return hr.getLoggingText();
+  }
+
+  /**
+   * Run a read transaction on a short-lived session of the logging connection
+   */
+  private <T> T readTransaction( TransactionWork<T> work ) {
+    Session session = null;
+    try {
+      session = DriverRegistry.getSession( LogChannel.UI, connection );
+      return session.readTransaction( work );
+    } finally {
+      DriverRegistry.release( session );
+    }
+  }
+
   private class TreeIndexes {
     int rootIndex;
     int pathIndex;
@@ -807,13 +833,11 @@ public class HistoryResultsDialog {
       enableOpenButton(execution);
     }
 
-    // System.out.println(">>>>>>>> handleItemSelection: session!=null ? "+(session!=null)+", cypher!=null ? "+(cypher!=null));
-
-    if (session!=null && cypher!=null) {
+    if (connection!=null && cypher!=null) {
       // Execute cypher and get DataModel
       //
       final String cypherString = cypher;
-      currentDataModel = session.readTransaction( tx -> {
+      currentDataModel = readTransaction( tx -> {
         Result result = tx.run( cypherString );
 
         // Load data model from results...
@@ -981,7 +1005,7 @@ public class HistoryResultsDialog {
 
     log.append( "Execution Log: " ).append( Const.CR );
     log.append("--------------------------------------------").append(Const.CR);
-    log.append( hr.getLoggingText() ).append( Const.CR );
+    log.append( getLoggingText( hr ) ).append( Const.CR );
 
     wLogging.setText( log.toString() );
 
@@ -0,0 +1,249 @@
+package com.neo4j.kettle.logging.writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.kettle.shared.NeoConnection;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LoggingSpoolTest {
+
+  private static final long MAX_SIZE = 1024L * 1024L;
+
+  private static LogChannelInterface log;
+
+  private File folder;
+  private NeoConnection connection;
+
+  @BeforeClass
+  public static void beforeClass() {
+    KettleLogStore.init();
+    log = new LogChannel( "LoggingSpoolTest" );
+  }
+
+  @Before
+  public void before() throws IOException {
+    folder = Files.createTempDirectory( "neo4j-logging-spool" ).toFile();
+    connection = new NeoConnection();
+    connection.setName( "test" );
+  }
+
+  @After
+  public void after() {
+    File[] files = folder.listFiles();
+    if ( files != null ) {
+      for ( File file : files ) {
+        file.delete();
+      }
+    }
+    folder.delete();
+  }
+
+  @Test
+  public void testRecordFormat() throws IOException {
+    LoggingSpool spool = newSpool();
+    assertTrue( spool.isEmpty() );
+    assertTrue( spool.append( newEvent( "event 1" ) ) );
+    assertTrue( spool.append( newEvent( "event 2" ) ) );
+    spool.close();
+
+    try ( RandomAccessFile raf = new RandomAccessFile( spool.getFile(), "r" ) ) {
+      assertEquals( 8L, raf.readLong() );
+      int length1 = raf.readInt();
+      raf.seek( 8 + 4 + length1 );
+      int length2 = raf.readInt();
+      assertEquals( 8L + 4 + length1 + 4 + length2, raf.length() );
+    }
+  }
+
+  @Test
+  public void testPeekAndRemoveInOrder() {
+    LoggingSpool spool = newSpool();
+    spool.append( newEvent( "event 1" ) );
+    spool.append( newEvent( "event 2" ) );
+
+    assertEquals( "event 1", spool.peek().getDescription() );
+    assertEquals( "event 1", spool.peek().getDescription() );
+    spool.remove();
+    assertEquals( "event 2", spool.peek().getDescription() );
+    spool.remove();
+    assertNull( spool.peek() );
+    assertTrue( spool.isEmpty() );
+    spool.close();
+
+    // Once everything is replayed only the header is left
+    //
+    assertEquals( 8L, spool.getFile().length() );
+  }
+
+  @Test
+  public void testReadOffsetIsPersisted() throws IOException {
+    LoggingSpool spool = newSpool();
+    spool.append( newEvent( "event 1" ) );
+    spool.append( newEvent( "event 2" ) );
+    spool.append( newEvent( "event 3" ) );
+    spool.peek();
+    spool.remove();
+    spool.close();
+
+    try ( RandomAccessFile raf = new RandomAccessFile( spool.getFile(), "r" ) ) {
+      long readOffset = raf.readLong();
+      raf.seek( 8 );
+      assertEquals( 8L + 4 + raf.readInt(), readOffset );
+    }
+
+    LoggingSpool reopened = newSpool();
+    assertFalse( reopened.isEmpty() );
+    assertEquals( "event 2", reopened.peek().getDescription() );
+    reopened.remove();
+    assertEquals( "event 3", reopened.peek().getDescription() );
+    reopened.close();
+  }
+
+  @Test
+  public void testTornTailIsDiscardedOnOpen() throws IOException {
+    LoggingSpool spool = newSpool();
+    spool.append( newEvent( "event 1" ) );
+    spool.close();
+    long completeLength = spool.getFile().length();
+
+    // A crash while the second record was written: its length is there but only part of its data
+    //
+    try ( RandomAccessFile raf = new RandomAccessFile( spool.getFile(), "rw" ) ) {
+      raf.seek( raf.length() );
+      raf.writeInt( 1000 );
+      raf.write( new byte[] { 1, 2, 3 } );
+    }
+
+    LoggingSpool reopened = newSpool();
+    assertFalse( reopened.isEmpty() );
+    assertEquals( completeLength, reopened.getFile().length() );
+
+    // New records go right after the last complete one
+    //
+    assertTrue( reopened.append( newEvent( "event 2" ) ) );
+    assertEquals( "event 1", reopened.peek().getDescription() );
+    reopened.remove();
+    assertEquals( "event 2", reopened.peek().getDescription() );
+    reopened.remove();
+    assertNull( reopened.peek() );
+    reopened.close();
+  }
+
+  @Test
+  public void testTornLengthIsDiscardedOnOpen() throws IOException {
+    LoggingSpool spool = newSpool();
+    spool.append( newEvent( "event 1" ) );
+    spool.close();
+    long completeLength = spool.getFile().length();
+
+    try ( RandomAccessFile raf = new RandomAccessFile( spool.getFile(), "rw" ) ) {
+      raf.seek( raf.length() );
+      raf.write( new byte[] { 0, 0 } );
+    }
+
+    LoggingSpool reopened = newSpool();
+    assertEquals( "event 1", reopened.peek().getDescription() );
+    assertEquals( completeLength, reopened.getFile().length() );
+    reopened.close();
+  }
+
+  @Test
+  public void testPeekSkipsUnreadableRecords() throws IOException {
+    LoggingSpool spool = newSpool();
+    spool.append( newEvent( "event 1" ) );
+    spool.append( newEvent( "event 2" ) );
+    spool.close();
+
+    // Overwrite the serialization header of the first record, its length stays valid
+    //
+    try ( RandomAccessFile raf = new RandomAccessFile( spool.getFile(), "rw" ) ) {
+      raf.seek( 8 + 4 );
+      raf.write( new byte[] { 0, 0, 0, 0 } );
+    }
+
+    LoggingSpool reopened = newSpool();
+    assertEquals( "event 2", reopened.peek().getDescription() );
+    reopened.remove();
+    assertNull( reopened.peek() );
+    reopened.close();
+  }
+
+  @Test
+  public void testPeekDiscardsCorruptLength() throws IOException {
+    LoggingSpool spool = newSpool();
+    spool.append( newEvent( "event 1" ) );
+    long secondRecordOffset = spool.getFile().length();
+    spool.append( newEvent( "event 2" ) );
+
+    // The length of the last record gets damaged while the spool is in use
+    //
+    try ( RandomAccessFile raf = new RandomAccessFile( spool.getFile(), "rw" ) ) {
+      raf.seek( secondRecordOffset );
+      raf.writeInt( Integer.MAX_VALUE );
+    }
+
+    assertEquals( "event 1", spool.peek().getDescription() );
+    spool.remove();
+    assertNull( spool.peek() );
+    assertTrue( spool.isEmpty() );
+    assertTrue( spool.append( newEvent( "event 3" ) ) );
+    assertEquals( "event 3", spool.peek().getDescription() );
+    spool.close();
+  }
+
+  @Test
+  public void testFullSpoolRefusesEvents() {
+    LoggingSpool spool = new LoggingSpool( connection.getName(), folder.getAbsolutePath(), 16, log );
+    assertFalse( spool.append( newEvent( "event 1" ) ) );
+    assertTrue( spool.isEmpty() );
+    spool.close();
+  }
+
+  @Test
+  public void testLockedSpoolFileIsNotShared() {
+    LoggingSpool first = newSpool();
+    LoggingSpool second = newSpool();
+    first.append( newEvent( "event 1" ) );
+    second.append( newEvent( "event 2" ) );
+    assertFalse( first.getFile().equals( second.getFile() ) );
+
+    assertEquals( "event 1", first.peek().getDescription() );
+    assertEquals( "event 2", second.peek().getDescription() );
+    first.close();
+    second.close();
+
+    // The events left behind in the second file are picked up once the first one is taken
+    //
+    LoggingSpool third = newSpool();
+    LoggingSpool fourth = newSpool();
+    assertEquals( "event 1", third.peek().getDescription() );
+    assertEquals( "event 2", fourth.peek().getDescription() );
+    third.close();
+    fourth.close();
+  }
+
+  private LoggingSpool newSpool() {
+    return new LoggingSpool( connection.getName(), folder.getAbsolutePath(), MAX_SIZE, log );
+  }
+
+  private LoggingEvent newEvent( String description ) {
+    LoggingEvent event = new LoggingEvent( description, "execution", log, connection );
+    event.addStatement( "RETURN $value", new HashMap<>() );
+    return event;
+  }
+}